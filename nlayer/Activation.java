@@ -0,0 +1,372 @@
+/*
+ * The activation functions of the n-layer perceptron and their derivatives. Each function is applied
+ * to a whole layer at a time: the switch on the function runs once per layer and every case holds its
+ * own loop, so each loop only ever sees one function and the JIT can inline it.
+ *
+ * Derivatives are computed from the activation the function already produced, not from theta:
+ * sigmoid' = f(1 - f), tanh' = 1 - f^2, relu' = 1 if f > 0 else 0, leaky relu' = 1 if f > 0 else LEAKY_SLOPE.
+ *
+ * SOFTMAX is the one function that couples a layer: f[i] = exp(x[i]) / sum exp(x[m]), computed after
+ * subtracting the largest x so no exponential overflows (the log-sum-exp shift). It is only allowed on
+ * the output layer, where it pairs with the cross-entropy error -sum T log F. The gradient of that pair
+ * with respect to theta is F - T, so the output psi is T - F unscaled and scaleByDerivative leaves it alone.
+ *
+ * public static int parse(String name, boolean tableSigmoid)
+ * public static String name(int function)
+ * public static void apply(int function, double[] x, double[] f, int length)
+ * public static void scaleByDerivative(int function, double[] f, double[] psi, int length)
+ * public static void softmax(double[] x, double[] f, int offset, int length)
+ * public static double crossEntropy(double[] target, double[] f, int length)
+ * public static void apply(int function, float[] x, float[] f, int length)
+ * public static void scaleByDerivative(int function, float[] f, float[] psi, int length)
+ * public static void softmax(float[] x, float[] f, int length)
+ * public static String expression(int function, String x)
+ * public static String derivativeExpression(int function, String f, String psi)
+ */
+public class Activation
+{
+   public static final int SIGMOID = 0;
+   public static final int SIGMOID_TABLE = 1; // sigmoid read from SigmoidTable
+   public static final int TANH = 2;
+   public static final int RELU = 3;
+   public static final int LEAKY_RELU = 4;
+   public static final int SOFTMAX = 5; // output layer only, trained with the cross-entropy error
+
+   public static final double LEAKY_SLOPE = 0.01; // slope of leaky relu for negative inputs
+
+   /*
+    * Returns the function named in the configuration file
+    *
+    * @param name            one of "sigmoid", "tanh", "relu", "leakyrelu" or "softmax"
+    * @param tableSigmoid    whether sigmoid layers read from SigmoidTable
+    */
+   public static int parse(String name, boolean tableSigmoid)
+   {
+      switch (name)
+      {
+         case "sigmoid":
+            return tableSigmoid ? SIGMOID_TABLE : SIGMOID;
+         case "tanh":
+            return TANH;
+         case "relu":
+            return RELU;
+         case "leakyrelu":
+            return LEAKY_RELU;
+         case "softmax":
+            return SOFTMAX;
+         default:
+            throw new IllegalArgumentException("Unknown activation function '" + name + "'");
+      }
+   } // public static int parse(String name, boolean tableSigmoid)
+
+   /*
+    * Returns the configuration file name of a function
+    *
+    * @param function    the function constant
+    */
+   public static String name(int function)
+   {
+      switch (function)
+      {
+         case TANH:
+            return "tanh";
+         case RELU:
+            return "relu";
+         case LEAKY_RELU:
+            return "leakyrelu";
+         case SOFTMAX:
+            return "softmax";
+         default:
+            return "sigmoid";
+      }
+   } // public static String name(int function)
+
+   /*
+    * Sets f[i] to the activation function of x[i] for every i in [0, length). x and f may be the same array.
+    *
+    * @param function    the function constant
+    * @param x           the dot products of the layer
+    * @param f           the array to write the activations to
+    * @param length      the number of activations in the layer
+    */
+   public static void apply(int function, double[] x, double[] f, int length)
+   {
+      switch (function)
+      {
+         case SIGMOID:
+            for (int i = 0; i < length; i++)
+            {
+               f[i] = 1.0 / (1.0 + Math.exp(-x[i]));
+            }
+            break;
+         case SIGMOID_TABLE:
+            for (int i = 0; i < length; i++)
+            {
+               f[i] = SigmoidTable.sigmoid(x[i]);
+            }
+            break;
+         case TANH:
+            for (int i = 0; i < length; i++)
+            {
+               f[i] = Math.tanh(x[i]);
+            }
+            break;
+         case RELU:
+            for (int i = 0; i < length; i++)
+            {
+               f[i] = Math.max(x[i], 0.0);
+            }
+            break;
+         case LEAKY_RELU:
+            for (int i = 0; i < length; i++)
+            {
+               f[i] = (x[i] > 0.0) ? x[i] : LEAKY_SLOPE * x[i];
+            }
+            break;
+         case SOFTMAX:
+            softmax(x, f, 0, length);
+            break;
+      } // switch (function)
+   } // public static void apply(int function, double[] x, double[] f, int length)
+
+   /*
+    * Multiplies psi[i] by the derivative of the activation function at the point where it produced f[i]
+    *
+    * @param function    the function constant
+    * @param f           the activations of the layer
+    * @param psi         the values to scale, capitalOmega on entry and psi on exit
+    * @param length      the number of activations in the layer
+    */
+   public static void scaleByDerivative(int function, double[] f, double[] psi, int length)
+   {
+      switch (function)
+      {
+         case SIGMOID:
+         case SIGMOID_TABLE:
+            for (int i = 0; i < length; i++)
+            {
+               psi[i] = f[i] * (1.0 - f[i]) * psi[i];
+            }
+            break;
+         case TANH:
+            for (int i = 0; i < length; i++)
+            {
+               psi[i] = (1.0 - f[i] * f[i]) * psi[i];
+            }
+            break;
+         case RELU:
+            for (int i = 0; i < length; i++)
+            {
+               psi[i] = (f[i] > 0.0) ? psi[i] : 0.0;
+            }
+            break;
+         case LEAKY_RELU:
+            for (int i = 0; i < length; i++)
+            {
+               psi[i] = (f[i] > 0.0) ? psi[i] : LEAKY_SLOPE * psi[i];
+            }
+            break;
+      } // switch (function)
+   } // public static void scaleByDerivative(int function, double[] f, double[] psi, int length)
+
+   /*
+    * Sets f[offset + i] to the softmax of x[offset..offset + length) for every i in [0, length), shifting
+    * by the largest x first so the exponentials stay in range. x and f may be the same array.
+    *
+    * @param x         the dot products
+    * @param f         the array to write the activations to
+    * @param offset    the index of the first dot product
+    * @param length    the number of activations in the layer
+    */
+   public static void softmax(double[] x, double[] f, int offset, int length)
+   {
+      double max = Double.NEGATIVE_INFINITY;
+      for (int i = offset; i < offset + length; i++)
+      {
+         max = Math.max(max, x[i]);
+      }
+
+      double sum = 0.0;
+      for (int i = offset; i < offset + length; i++)
+      {
+         f[i] = Math.exp(x[i] - max);
+         sum += f[i];
+      }
+
+      for (int i = offset; i < offset + length; i++)
+      {
+         f[i] /= sum;
+      }
+   } // public static void softmax(double[] x, double[] f, int offset, int length)
+
+   /*
+    * Returns the cross-entropy error -sum T log F of softmax outputs. An output that underflowed to 0
+    * counts as the smallest positive double, so a confidently wrong case costs about 745 instead of infinity.
+    *
+    * @param target    the expected outputs
+    * @param f         the softmax outputs
+    * @param length    the number of outputs
+    */
+   public static double crossEntropy(double[] target, double[] f, int length)
+   {
+      double error = 0.0;
+
+      for (int i = 0; i < length; i++)
+      {
+         if (target[i] != 0.0)
+            error -= target[i] * Math.log(Math.max(f[i], Double.MIN_VALUE));
+      }
+
+      return error;
+   } // public static double crossEntropy(double[] target, double[] f, int length)
+
+   /*
+    * Single-precision version of apply for FloatNetwork
+    */
+   public static void apply(int function, float[] x, float[] f, int length)
+   {
+      switch (function)
+      {
+         case SIGMOID:
+            for (int i = 0; i < length; i++)
+            {
+               f[i] = 1.0f / (1.0f + (float) Math.exp(-x[i]));
+            }
+            break;
+         case SIGMOID_TABLE:
+            for (int i = 0; i < length; i++)
+            {
+               f[i] = (float) SigmoidTable.sigmoid(x[i]);
+            }
+            break;
+         case TANH:
+            for (int i = 0; i < length; i++)
+            {
+               f[i] = (float) Math.tanh(x[i]);
+            }
+            break;
+         case RELU:
+            for (int i = 0; i < length; i++)
+            {
+               f[i] = Math.max(x[i], 0.0f);
+            }
+            break;
+         case LEAKY_RELU:
+            for (int i = 0; i < length; i++)
+            {
+               f[i] = (x[i] > 0.0f) ? x[i] : (float) LEAKY_SLOPE * x[i];
+            }
+            break;
+         case SOFTMAX:
+            softmax(x, f, length);
+            break;
+      } // switch (function)
+   } // public static void apply(int function, float[] x, float[] f, int length)
+
+   /*
+    * Single-precision version of scaleByDerivative for FloatNetwork
+    */
+   public static void scaleByDerivative(int function, float[] f, float[] psi, int length)
+   {
+      switch (function)
+      {
+         case SIGMOID:
+         case SIGMOID_TABLE:
+            for (int i = 0; i < length; i++)
+            {
+               psi[i] = f[i] * (1.0f - f[i]) * psi[i];
+            }
+            break;
+         case TANH:
+            for (int i = 0; i < length; i++)
+            {
+               psi[i] = (1.0f - f[i] * f[i]) * psi[i];
+            }
+            break;
+         case RELU:
+            for (int i = 0; i < length; i++)
+            {
+               psi[i] = (f[i] > 0.0f) ? psi[i] : 0.0f;
+            }
+            break;
+         case LEAKY_RELU:
+            for (int i = 0; i < length; i++)
+            {
+               psi[i] = (f[i] > 0.0f) ? psi[i] : (float) LEAKY_SLOPE * psi[i];
+            }
+            break;
+      } // switch (function)
+   } // public static void scaleByDerivative(int function, float[] f, float[] psi, int length)
+
+   /*
+    * Single-precision version of softmax for FloatNetwork, summing the exponentials in double
+    */
+   public static void softmax(float[] x, float[] f, int length)
+   {
+      float max = Float.NEGATIVE_INFINITY;
+      for (int i = 0; i < length; i++)
+      {
+         max = Math.max(max, x[i]);
+      }
+
+      double sum = 0.0;
+      for (int i = 0; i < length; i++)
+      {
+         f[i] = (float) Math.exp(x[i] - max);
+         sum += f[i];
+      }
+
+      for (int i = 0; i < length; i++)
+      {
+         f[i] = (float) (f[i] / sum);
+      }
+   } // public static void softmax(float[] x, float[] f, int length)
+
+   /*
+    * Returns Java source for the activation function of the variable x, for NetworkGenerator.
+    * The expressions compute the same values as apply.
+    *
+    * @param function    the function constant
+    * @param x           the name of the variable holding the dot product
+    */
+   public static String expression(int function, String x)
+   {
+      switch (function)
+      {
+         case SIGMOID_TABLE:
+            return "SigmoidTable.sigmoid(" + x + ")";
+         case TANH:
+            return "Math.tanh(" + x + ")";
+         case RELU:
+            return "Math.max(" + x + ", 0.0)";
+         case LEAKY_RELU:
+            return "((" + x + " > 0.0) ? " + x + " : Activation.LEAKY_SLOPE * " + x + ")";
+         default:
+            return "1.0 / (1.0 + Math.exp(-" + x + "))";
+      }
+   } // public static String expression(int function, String x)
+
+   /*
+    * Returns Java source for psi scaled by the derivative of the activation function at the point where
+    * it produced f, for NetworkGenerator. The expressions compute the same values as scaleByDerivative.
+    *
+    * @param function    the function constant
+    * @param f           the name of the variable holding the activation
+    * @param psi         the name of the variable holding the value to scale
+    */
+   public static String derivativeExpression(int function, String f, String psi)
+   {
+      switch (function)
+      {
+         case TANH:
+            return "(1.0 - " + f + " * " + f + ") * " + psi;
+         case RELU:
+            return "((" + f + " > 0.0) ? " + psi + " : 0.0)";
+         case LEAKY_RELU:
+            return "((" + f + " > 0.0) ? " + psi + " : Activation.LEAKY_SLOPE * " + psi + ")";
+         default:
+            return f + " * (1.0 - " + f + ") * " + psi;
+      }
+   } // public static String derivativeExpression(int function, String f, String psi)
+
+} // public class Activation
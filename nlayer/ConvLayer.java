@@ -0,0 +1,297 @@
+import java.util.*;
+
+/*
+ * A convolution layer followed by a pooling layer that sits in front of the dense layers of Perceptron.
+ * The case inputs are read as inChannels images of height x width values, row by row. Each of the
+ * channels output maps slides one kernelSize x kernelSize filter per input channel over the images with
+ * the given stride (no padding), applies the activation function and is then reduced by non-overlapping
+ * poolSize x poolSize windows, taking the largest value or the mean. The pooled maps, [c][y][x], are the
+ * inputs of the first dense layer. Every output position shares the same filter weights, so the layer has
+ * only channels x inChannels x kernelSize^2 weights and no biases, like the rest of the network.
+ *
+ * The convolution is computed through im2col: the input value under every filter tap is copied into one
+ * row of taps x pixels, so a filter becomes taps calls of Kernel.accumulate over a whole output map. For
+ * the 100 x 100 gray images this gives rows of a few thousand contiguous values instead of dot products
+ * of kernelSize values. Backpropagation reuses the same rows: the gradient of each tap is one Kernel.dot
+ * of the map's psi values with its row.
+ *
+ * forward keeps the im2col rows, the activations and the pooling winners of the last case, which
+ * backward needs, so the layer trains one case at a time.
+ *
+ * public ConvLayer(int height, int width, int inChannels, int channels, int kernelSize, int stride,
+ *                  int poolSize, boolean maxPool, int function)
+ * public void forward(Kernel kernel, double[] x, double[] features)
+ * public void backward(Kernel kernel, double lambda, double[] featurePsi)
+ * private void im2col(double[] x)
+ * private void pool(int c, double[] features)
+ * public int inputSize()
+ * public int outputSize()
+ * public int weightCount()
+ * public double getWeight(int index)
+ * public void setWeight(int index, double value)
+ * public String shapeString()
+ */
+public class ConvLayer
+{
+   private int height, width, inChannels;
+   private int channels, kernelSize, stride;
+   private int poolSize;
+   private boolean maxPool; // largest value of each window if true, mean otherwise
+   private int function; // the Activation function of the output maps
+   private int convHeight, convWidth, pixels; // shape of one output map before pooling
+   private int poolHeight, poolWidth; // shape of one output map after pooling
+   private int taps; // weights per filter
+
+   private double[] weights; // [c][t], tap t = (input channel * kernelSize + ky) * kernelSize + kx
+   private double[] columns; // the im2col rows of the last case, [t][pixel]
+   private double[][] maps; // the activated output maps of the last case, [c][pixel]
+   private int[] winners; // the map pixel each pooled feature took its value from in the last case
+   private double[] mapPsi; // the psi values of one output map during backward
+
+   /*
+    * Allocates a layer with zeroed weights for the given shapes
+    *
+    * @param height        the number of rows of each input image
+    * @param width         the number of columns of each input image
+    * @param inChannels    the number of input images per case
+    * @param channels      the number of output maps
+    * @param kernelSize    the number of rows and columns of each filter
+    * @param stride        the step between neighbouring filter positions
+    * @param poolSize      the number of rows and columns of each pooling window
+    * @param maxPool       true for max pooling, false for average pooling
+    * @param function      the Activation function applied to the output maps
+    */
+   public ConvLayer(int height, int width, int inChannels, int channels, int kernelSize, int stride,
+                    int poolSize, boolean maxPool, int function)
+   {
+      this.height = height;
+      this.width = width;
+      this.inChannels = inChannels;
+      this.channels = channels;
+      this.kernelSize = kernelSize;
+      this.stride = stride;
+      this.poolSize = poolSize;
+      this.maxPool = maxPool;
+      this.function = function;
+
+      convHeight = (height - kernelSize) / stride + 1;
+      convWidth = (width - kernelSize) / stride + 1;
+      pixels = convHeight * convWidth;
+      poolHeight = convHeight / poolSize;
+      poolWidth = convWidth / poolSize;
+      taps = inChannels * kernelSize * kernelSize;
+
+      if (kernelSize > height || kernelSize > width || poolHeight < 1 || poolWidth < 1)
+         throw new IllegalArgumentException("The convolution kernel and pooling window must fit in the " + height + "x" + width + " inputs");
+
+      weights = new double[channels * taps];
+      columns = new double[taps * pixels];
+      maps = new double[channels][pixels];
+      winners = new int[channels * poolHeight * poolWidth];
+      mapPsi = new double[pixels];
+   } // public ConvLayer(int height, int width, int inChannels, ...)
+
+   /*
+    * Computes the pooled features of one case
+    *
+    * @param kernel      the kernel that runs the inner loops
+    * @param x           the inputs of the case, inputSize values
+    * @param features    the array to write the outputSize pooled features to
+    */
+   public void forward(Kernel kernel, double[] x, double[] features)
+   {
+      im2col(x);
+
+      for (int c = 0; c < channels; c++)
+      {
+         Arrays.fill(maps[c], 0.0);
+
+         for (int t = 0; t < taps; t++)
+         {
+            kernel.accumulate(weights[c * taps + t], columns, t * pixels, maps[c], pixels);
+         }
+
+         Activation.apply(function, maps[c], maps[c], pixels);
+         pool(c, features);
+      } // for (int c = 0; c < channels; c++)
+   } // public void forward(Kernel kernel, double[] x, double[] features)
+
+   /*
+    * Takes the steepest descent step for the filters of the last case run through forward. featurePsi
+    * holds the capitalOmega sums of the pooled features, which pass back through the pooling windows
+    * unchanged (max) or shared evenly (average) and are then scaled by the activation derivative.
+    *
+    * @param kernel        the kernel that runs the inner loops
+    * @param lambda        the learning factor
+    * @param featurePsi    the psi value of each pooled feature
+    */
+   public void backward(Kernel kernel, double lambda, double[] featurePsi)
+   {
+      int features = poolHeight * poolWidth;
+      int corner;
+      double share;
+
+      for (int c = 0; c < channels; c++)
+      {
+         Arrays.fill(mapPsi, 0.0);
+
+         for (int f = c * features; f < (c + 1) * features; f++)
+         {
+            if (maxPool)
+            {
+               mapPsi[winners[f]] = featurePsi[f];
+            }
+            else
+            {
+               corner = ((f - c * features) / poolWidth) * poolSize * convWidth + ((f - c * features) % poolWidth) * poolSize;
+               share = featurePsi[f] / (poolSize * poolSize);
+
+               for (int py = 0; py < poolSize; py++)
+               {
+                  Arrays.fill(mapPsi, corner + py * convWidth, corner + py * convWidth + poolSize, share);
+               }
+            }
+         } // for (int f = c * features; f < (c + 1) * features; f++)
+
+         Activation.scaleByDerivative(function, maps[c], mapPsi, pixels);
+
+         for (int t = 0; t < taps; t++)
+         {
+            weights[c * taps + t] += lambda * kernel.dot(mapPsi, columns, t * pixels, pixels);
+         }
+      } // for (int c = 0; c < channels; c++)
+   } // public void backward(Kernel kernel, double lambda, double[] featurePsi)
+
+   /*
+    * Copies the input under every filter tap at every output position into the im2col rows. With a
+    * stride of 1 each output row of a tap is one contiguous run of the input.
+    *
+    * @param x    the inputs of the case
+    */
+   private void im2col(double[] x)
+   {
+      int t, source, target;
+
+      for (int ci = 0; ci < inChannels; ci++)
+      {
+         for (int ky = 0; ky < kernelSize; ky++)
+         {
+            for (int kx = 0; kx < kernelSize; kx++)
+            {
+               t = (ci * kernelSize + ky) * kernelSize + kx;
+
+               for (int oy = 0; oy < convHeight; oy++)
+               {
+                  source = (ci * height + oy * stride + ky) * width + kx;
+                  target = t * pixels + oy * convWidth;
+
+                  if (stride == 1)
+                  {
+                     System.arraycopy(x, source, columns, target, convWidth);
+                  }
+                  else
+                  {
+                     for (int ox = 0; ox < convWidth; ox++)
+                     {
+                        columns[target + ox] = x[source + ox * stride];
+                     }
+                  }
+               } // for (int oy = 0; oy < convHeight; oy++)
+            } // for (int kx = 0; kx < kernelSize; kx++)
+         } // for (int ky = 0; ky < kernelSize; ky++)
+      } // for (int ci = 0; ci < inChannels; ci++)
+   } // private void im2col(double[] x)
+
+   /*
+    * Reduces output map c to its pooled features. Map rows and columns left over after the last
+    * whole window are dropped.
+    *
+    * @param c           the output map to pool
+    * @param features    the array to write the pooled features to
+    */
+   private void pool(int c, double[] features)
+   {
+      double[] map = maps[c];
+      int f, corner, best;
+      double sum;
+
+      for (int py = 0; py < poolHeight; py++)
+      {
+         for (int px = 0; px < poolWidth; px++)
+         {
+            f = (c * poolHeight + py) * poolWidth + px;
+            corner = py * poolSize * convWidth + px * poolSize;
+            best = corner;
+            sum = 0.0;
+
+            for (int y = corner; y < corner + poolSize * convWidth; y += convWidth)
+            {
+               for (int p = y; p < y + poolSize; p++)
+               {
+                  if (map[p] > map[best])
+                     best = p;
+                  sum += map[p];
+               }
+            }
+
+            winners[f] = best;
+            features[f] = maxPool ? map[best] : sum / (poolSize * poolSize);
+         } // for (int px = 0; px < poolWidth; px++)
+      } // for (int py = 0; py < poolHeight; py++)
+   } // private void pool(int c, double[] features)
+
+   /*
+    * Returns the number of inputs of a case
+    */
+   public int inputSize()
+   {
+      return inChannels * height * width;
+   }
+
+   /*
+    * Returns the number of pooled features, which must be the number of activations of the first dense layer
+    */
+   public int outputSize()
+   {
+      return channels * poolHeight * poolWidth;
+   }
+
+   /*
+    * Returns the number of filter weights
+    */
+   public int weightCount()
+   {
+      return weights.length;
+   }
+
+   /*
+    * Returns a filter weight, indexed [c][t] as described at the weights field
+    *
+    * @param index    the index of the weight
+    */
+   public double getWeight(int index)
+   {
+      return weights[index];
+   }
+
+   /*
+    * Sets a filter weight, indexed [c][t] as described at the weights field
+    *
+    * @param index    the index of the weight
+    * @param value    the new value of the weight
+    */
+   public void setWeight(int index, double value)
+   {
+      weights[index] = value;
+   }
+
+   /*
+    * Returns the shape of the layer, e.g. "100x100x1 conv 8x5x5/2 relu max 4 -> 1152"
+    */
+   public String shapeString()
+   {
+      return height + "x" + width + "x" + inChannels + " conv " + channels + "x" + kernelSize + "x" + kernelSize + "/" + stride
+             + " " + Activation.name(function) + " " + (maxPool ? "max" : "average") + " " + poolSize + " -> " + outputSize();
+   }
+
+} // public class ConvLayer
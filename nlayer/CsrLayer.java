@@ -0,0 +1,168 @@
+import java.util.*;
+
+/*
+ * A connectivity layer whose weights are mostly zero, stored in compressed sparse row form. Row j (the
+ * weights feeding activation j of the next layer) holds its nonzero weights in values[rowStart[j]..
+ * rowStart[j + 1]) with their input indices in columns, in increasing order, so the forward pass only
+ * touches the surviving weights and reads the inputs in memory order.
+ *
+ * The gathered inputs x[columns[p]] are not contiguous, which the Kernel loops require, so multiply
+ * always runs its own scalar loop, whatever KERNEL selects.
+ *
+ * public CsrLayer(int rows, int width, int capacity)
+ * public static CsrLayer prune(double[] w, int rows, int width, double sparsity)
+ * public void append(int k, double value)
+ * public void endRow()
+ * public void multiply(double[] x, double[] out)
+ * public int rowLength(int j)
+ * public int column(int j, int p)
+ * public double value(int j, int p)
+ * public int nonZeros()
+ * public int size()
+ */
+public class CsrLayer
+{
+   private int rows, width;
+   private int[] rowStart; // rowStart[j] is the index in values of the first weight of row j
+   private int[] columns; // the input index of each stored weight
+   private double[] values; // the stored weights
+   private int filledRows, count;
+
+   /*
+    * Allocates an empty layer to be filled row by row with append and endRow
+    *
+    * @param rows        the number of activations the layer feeds
+    * @param width       the number of activations feeding the layer
+    * @param capacity    the number of nonzero weights the layer will hold
+    */
+   public CsrLayer(int rows, int width, int capacity)
+   {
+      this.rows = rows;
+      this.width = width;
+      rowStart = new int[rows + 1];
+      columns = new int[capacity];
+      values = new double[capacity];
+   } // public CsrLayer(int rows, int width, int capacity)
+
+   /*
+    * Returns a sparse copy of a dense weights buffer laid out as [j][k], keeping the largest weights by
+    * magnitude and dropping the given fraction of the layer
+    *
+    * @param w           the flat weights buffer
+    * @param rows        the number of rows of the layer
+    * @param width       the number of weights in each row
+    * @param sparsity    the fraction of weights to drop, between 0 and 1
+    */
+   public static CsrLayer prune(double[] w, int rows, int width, double sparsity)
+   {
+      int keep = (int) Math.round(w.length * (1.0 - Math.max(0.0, Math.min(1.0, sparsity))));
+      double[] magnitudes = new double[w.length];
+      for (int i = 0; i < w.length; i++)
+      {
+         magnitudes[i] = Math.abs(w[i]);
+      }
+      Arrays.sort(magnitudes);
+
+      double threshold = (keep > 0) ? magnitudes[w.length - keep] : Double.POSITIVE_INFINITY;
+      int above = 0; // weights strictly above the threshold are always kept; ties fill the rest
+      for (int i = 0; i < w.length; i++)
+      {
+         if (Math.abs(w[i]) > threshold)
+            above++;
+      }
+      int ties = keep - above;
+
+      CsrLayer layer = new CsrLayer(rows, width, keep);
+      for (int j = 0; j < rows; j++)
+      {
+         for (int k = 0; k < width; k++)
+         {
+            double magnitude = Math.abs(w[j * width + k]);
+            if (magnitude > threshold || (magnitude == threshold && ties-- > 0))
+               layer.append(k, w[j * width + k]);
+         }
+         layer.endRow();
+      }
+
+      return layer;
+   } // public static CsrLayer prune(double[] w, int rows, int width, double sparsity)
+
+   /*
+    * Adds a weight from input k to the row being filled. Inputs must be appended in increasing order.
+    */
+   public void append(int k, double value)
+   {
+      columns[count] = k;
+      values[count] = value;
+      count++;
+   }
+
+   /*
+    * Closes the row being filled and starts the next one
+    */
+   public void endRow()
+   {
+      filledRows++;
+      rowStart[filledRows] = count;
+   }
+
+   /*
+    * Computes the rows dot products of the layer for the input x, visiting only the stored weights
+    *
+    * @param x      the width activations feeding the layer
+    * @param out    the array to write the rows dot products to
+    */
+   public void multiply(double[] x, double[] out)
+   {
+      for (int j = 0; j < rows; j++)
+      {
+         double sum = 0.0;
+         for (int p = rowStart[j]; p < rowStart[j + 1]; p++)
+         {
+            sum += values[p] * x[columns[p]];
+         }
+         out[j] = sum;
+      }
+   } // public void multiply(double[] x, double[] out)
+
+   /*
+    * Returns the number of stored weights in row j
+    */
+   public int rowLength(int j)
+   {
+      return rowStart[j + 1] - rowStart[j];
+   }
+
+   /*
+    * Returns the input index of stored weight p of row j
+    */
+   public int column(int j, int p)
+   {
+      return columns[rowStart[j] + p];
+   }
+
+   /*
+    * Returns the value of stored weight p of row j
+    */
+   public double value(int j, int p)
+   {
+      return values[rowStart[j] + p];
+   }
+
+   /*
+    * Returns the number of stored weights
+    */
+   public int nonZeros()
+   {
+      return count;
+   }
+
+   /*
+    * Returns the number of weights of the dense layer
+    */
+   public int size()
+   {
+      return rows * width;
+   }
+
+} // public class CsrLayer
@@ -0,0 +1,32 @@
+/*
+ * One way of training the double precision network for an epoch, chosen by Perceptron.trainNetwork from
+ * PARALLEL_TRAINING, SAMPLING and CASE_TOLERANCE. The serial trainer, which takes every case in order
+ * on the calling thread, needs no scheduler and stays in Perceptron. A scheduler lives for one training
+ * run and trains through the Perceptron that created it, so its epochs step the same weights.
+ *
+ * public int trainEpoch(int epoch)
+ * public boolean staleOutputs()
+ * public void shutdown()
+ */
+public interface EpochScheduler
+{
+   /*
+    * Trains one epoch over the cases
+    *
+    * @param epoch    the number of epochs trained so far
+    * @return         the number of cases whose weight update was skipped
+    */
+   public int trainEpoch(int epoch);
+
+   /*
+    * Returns true if some outputs of the last epoch predate its last weight updates, so the cases must be
+    * run again before the mean error decides to stop training
+    */
+   public boolean staleOutputs();
+
+   /*
+    * Releases the threads the scheduler started, once training is done
+    */
+   public void shutdown();
+
+} // public interface EpochScheduler
@@ -0,0 +1,305 @@
+import java.util.*;
+
+/*
+ * Single-precision engine for the n-layer perceptron. It holds the weights, activations, thetas, psi
+ * values and case inputs as float arrays, in the same layouts Perceptron uses for its double arrays,
+ * and runs the same forward pass and backpropagation on them. This halves the memory traffic of the
+ * weights and the heap taken by the case inputs at the cost of precision.
+ *
+ * In mixed precision the arrays stay float but every dot product and every capitalOmega sum is
+ * accumulated in double, and each weight step is computed in double and rounded once. With master
+ * weights a double copy of every weight receives the steps and the float weights are rounded from it,
+ * so steps smaller than the float spacing of a weight are not lost.
+ *
+ * Perceptron keeps the configuration, the case outputs and all file handling, and moves values in and
+ * out of this class as doubles, so both precisions read and write the same weights file format.
+ *
+ * public FloatNetwork(int noLayers, int[] noActivations, int noCases, Kernel[] layerKernels, int[] activationFunctions,
+ *                    boolean mixed, boolean masterWeights)
+ * public void allocateTrainingArrays()
+ * public void setInput(int caseIndex, int k, double value)
+ * public double getInput(int caseIndex, int k)
+ * public void setWeight(int n, int index, double value)
+ * public double getWeight(int n, int index)
+ * public void run(int caseIndex, double[] output)
+ * public void runTrain(int caseIndex, double[] target, double[] output)
+ * public void updateWeights(double lambda)
+ * private void updateWeightsMixed(double lambda)
+ * private void updateRowMixed(int n, double lambda, float rowPsi, int wOffset)
+ */
+public class FloatNetwork
+{
+   private int noLayers;
+   private int[] noActivations;
+   private Kernel[] layerKernels; // the kernel of each connectivity layer
+   private int[] activationFunctions;
+   private boolean mixed; // accumulate in double, see the class comment
+
+   private float[][] caseIn;
+   private float[][] weights; // one contiguous [j][k] buffer per layer, as in Perceptron
+   private float[][] activations, thetas;
+   private float[][] psi;
+   private double[][] master; // double copy of the weights, only kept in mixed precision with master weights
+   private double[] omegaSums; // the capitalOmega sums of one layer in mixed precision
+
+   /*
+    * Allocates the arrays needed to run the network
+    *
+    * @param noLayers         the number of connectivity layers
+    * @param noActivations    the number of activations in each layer
+    * @param noCases          the number of cases to hold inputs for
+    * @param layerKernels     the kernel that runs the inner loops of each connectivity layer
+    * @param activationFunctions    the Activation function of each activation layer
+    * @param mixed            true to accumulate dot products and weight updates in double
+    * @param masterWeights    true to keep a double master copy of the weights in mixed precision
+    */
+   public FloatNetwork(int noLayers, int[] noActivations, int noCases, Kernel[] layerKernels, int[] activationFunctions,
+                       boolean mixed, boolean masterWeights)
+   {
+      this.noLayers = noLayers;
+      this.noActivations = noActivations;
+      this.layerKernels = layerKernels;
+      this.activationFunctions = activationFunctions;
+      this.mixed = mixed;
+
+      caseIn = new float[noCases][noActivations[0]];
+
+      weights = new float[noLayers][];
+      activations = new float[noLayers + 1][];
+      for (int n = 0; n < noLayers; n++)
+      {
+         weights[n] = new float[noActivations[n + 1] * noActivations[n]];
+      }
+
+      for (int n = 0; n <= noLayers; n++)
+      {
+         activations[n] = new float[noActivations[n]];
+      }
+
+      if (mixed && masterWeights)
+      {
+         master = new double[noLayers][];
+         for (int n = 0; n < noLayers; n++)
+         {
+            master[n] = new double[noActivations[n + 1] * noActivations[n]];
+         }
+      }
+   } // public FloatNetwork(int noLayers, int[] noActivations, int noCases, Kernel[] layerKernels, ...)
+
+   /*
+    * Allocates the arrays only needed for training
+    */
+   public void allocateTrainingArrays()
+   {
+      thetas = new float[noLayers + 1][];
+      psi = new float[noLayers + 1][];
+      for (int n = 0; n <= noLayers; n++)
+      {
+         thetas[n] = new float[noActivations[n]];
+         psi[n] = new float[noActivations[n]];
+      }
+
+      if (mixed)
+      {
+         int widest = 0;
+         for (int n = 1; n < noLayers; n++)
+         {
+            widest = Math.max(widest, noActivations[n]);
+         }
+         omegaSums = new double[widest];
+      }
+   } // public void allocateTrainingArrays()
+
+   /*
+    * Stores one input value of a case
+    *
+    * @param caseIndex  the index of the case
+    * @param k          the index of the input
+    * @param value      the value of the input
+    */
+   public void setInput(int caseIndex, int k, double value)
+   {
+      caseIn[caseIndex][k] = (float) value;
+   }
+
+   /*
+    * Returns one input value of a case
+    *
+    * @param caseIndex  the index of the case
+    * @param k          the index of the input
+    */
+   public double getInput(int caseIndex, int k)
+   {
+      return caseIn[caseIndex][k];
+   }
+
+   /*
+    * Stores one weight, rounded to single precision, and keeps it unrounded in the master weights
+    *
+    * @param n        the connectivity layer of the weight
+    * @param index    the index of the weight in the layer, as given by Perceptron.weightIndex
+    * @param value    the value of the weight
+    */
+   public void setWeight(int n, int index, double value)
+   {
+      weights[n][index] = (float) value;
+      if (master != null)
+         master[n][index] = value;
+   }
+
+   /*
+    * Returns one weight, from the master weights when they are kept
+    *
+    * @param n        the connectivity layer of the weight
+    * @param index    the index of the weight in the layer, as given by Perceptron.weightIndex
+    */
+   public double getWeight(int n, int index)
+   {
+      return (master != null) ? master[n][index] : weights[n][index];
+   }
+
+   /*
+    * Runs the network for the given case and writes the final activations into output
+    *
+    * @param caseIndex  the given test case to run the network on
+    * @param output     the array to write the outputs to
+    */
+   public void run(int caseIndex, double[] output)
+   {
+      System.arraycopy(caseIn[caseIndex], 0, activations[0], 0, noActivations[0]);
+
+      for (int n = 0; n < noLayers; n++)
+      {
+         for (int j = 0; j < noActivations[n + 1]; j++)
+         {
+            activations[n + 1][j] = mixed ? (float) layerKernels[n].mixedDot(activations[n], weights[n], j * noActivations[n], noActivations[n])
+                                          : layerKernels[n].dot(activations[n], weights[n], j * noActivations[n], noActivations[n]);
+         }
+         Activation.apply(activationFunctions[n + 1], activations[n + 1], activations[n + 1], noActivations[n + 1]);
+      }
+
+      for (int i = 0; i < noActivations[noLayers]; i++)
+      {
+         output[i] = activations[noLayers][i];
+      }
+   } // public void run(int caseIndex, double[] output)
+
+   /*
+    * Runs the network for the given case, keeping the thetas, and computes the psi values of the
+    * output layer from the expected outputs
+    *
+    * @param caseIndex  the given training case to run the network on
+    * @param target     the expected outputs of the case
+    * @param output     the array to write the outputs to
+    */
+   public void runTrain(int caseIndex, double[] target, double[] output)
+   {
+      System.arraycopy(caseIn[caseIndex], 0, activations[0], 0, noActivations[0]);
+
+      for (int n = 0; n < noLayers; n++)
+      {
+         for (int j = 0; j < noActivations[n + 1]; j++)
+         {
+            thetas[n + 1][j] = mixed ? (float) layerKernels[n].mixedDot(activations[n], weights[n], j * noActivations[n], noActivations[n])
+                                     : layerKernels[n].dot(activations[n], weights[n], j * noActivations[n], noActivations[n]);
+         }
+         Activation.apply(activationFunctions[n + 1], thetas[n + 1], activations[n + 1], noActivations[n + 1]);
+      }
+
+      for (int i = 0; i < noActivations[noLayers]; i++)
+      {
+         output[i] = activations[noLayers][i];
+         psi[noLayers][i] = (float) target[i] - activations[noLayers][i];
+      }
+      Activation.scaleByDerivative(activationFunctions[noLayers], activations[noLayers], psi[noLayers], noActivations[noLayers]);
+   } // public void runTrain(int caseIndex, double[] target, double[] output)
+
+   /*
+    * Updates the weights from the psi values left by runTrain, one weights row at a time,
+    * in the same order as Perceptron.updateWeights
+    *
+    * @param lambda    the learning factor
+    */
+   public void updateWeights(double lambda)
+   {
+      if (mixed)
+      {
+         updateWeightsMixed(lambda);
+         return;
+      }
+
+      float rate = (float) lambda;
+      float[] layerWeights;
+      int width;
+
+      for (int n = noLayers - 1; n >= 1; n--)
+      {
+         layerWeights = weights[n];
+         width = noActivations[n];
+         Arrays.fill(psi[n], 0.0f);
+
+         for (int i = 0; i < noActivations[n + 1]; i++)
+         {
+            layerKernels[n].accumulate(psi[n + 1][i], layerWeights, i * width, psi[n], width);
+            layerKernels[n].updateRow(rate, activations[n], psi[n + 1][i], layerWeights, i * width, width);
+         }
+
+         Activation.scaleByDerivative(activationFunctions[n], activations[n], psi[n], width);
+      } // for (int n = noLayers - 1; n >= 1; n--)
+
+      layerKernels[0].updateLayer(rate, activations[0], psi[1], weights[0], noActivations[1], noActivations[0]);
+   } // public void updateWeights(double lambda)
+
+   /*
+    * Mixed-precision version of updateWeights. The capitalOmega sums of each layer are accumulated in
+    * double and rounded into psi once, and the weight steps go through the master weights when kept.
+    *
+    * @param lambda    the learning factor
+    */
+   private void updateWeightsMixed(double lambda)
+   {
+      float[] layerWeights;
+      int width;
+
+      for (int n = noLayers - 1; n >= 1; n--)
+      {
+         layerWeights = weights[n];
+         width = noActivations[n];
+         Arrays.fill(omegaSums, 0, width, 0.0);
+
+         for (int i = 0; i < noActivations[n + 1]; i++)
+         {
+            layerKernels[n].mixedAccumulate(psi[n + 1][i], layerWeights, i * width, omegaSums, width);
+            updateRowMixed(n, lambda, psi[n + 1][i], i * width);
+         }
+
+         for (int m = 0; m < width; m++)
+         {
+            psi[n][m] = (float) omegaSums[m];
+         }
+         Activation.scaleByDerivative(activationFunctions[n], activations[n], psi[n], width);
+      } // for (int n = noLayers - 1; n >= 1; n--)
+
+      for (int k = 0; k < noActivations[1]; k++)
+      {
+         updateRowMixed(0, lambda, psi[1][k], k * noActivations[0]);
+      }
+   } // private void updateWeightsMixed(double lambda)
+
+   /*
+    * Takes the mixed-precision steepest descent step for one row of weights of layer n
+    *
+    * @param n          the connectivity layer
+    * @param lambda     the learning factor
+    * @param rowPsi     the psi value of the activation the row feeds into
+    * @param wOffset    the index of the first weight of the row
+    */
+   private void updateRowMixed(int n, double lambda, float rowPsi, int wOffset)
+   {
+      if (master != null)
+         layerKernels[n].masterUpdateRow(lambda, activations[n], rowPsi, master[n], weights[n], wOffset, noActivations[n]);
+      else
+         layerKernels[n].mixedUpdateRow(lambda, activations[n], rowPsi, weights[n], wOffset, noActivations[n]);
+   } // private void updateRowMixed(int n, double lambda, float rowPsi, int wOffset)
+
+} // public class FloatNetwork
@@ -0,0 +1,119 @@
+/*
+ * Plain Java kernel whose dot products keep four independent partial sums, so consecutive multiply-adds
+ * do not wait on each other and no Vector API is needed. The sums are rounded differently from
+ * ScalarKernel. The update loops are inherited from ScalarKernel unchanged.
+ *
+ * public double dot(double[] x, double[] w, int wOffset, int length)
+ * public float dot(float[] x, float[] w, int wOffset, int length)
+ * public int dot(byte[] x, byte[] w, int wOffset, int length)
+ * public double mixedDot(float[] x, float[] w, int wOffset, int length)
+ * public String name()
+ */
+public class FourWayKernel extends ScalarKernel
+{
+   /*
+    * Returns the dot product of x[0..length) and w[wOffset..wOffset + length)
+    */
+   public double dot(double[] x, double[] w, int wOffset, int length)
+   {
+      double sum0 = 0.0, sum1 = 0.0, sum2 = 0.0, sum3 = 0.0;
+      int i = 0;
+
+      for (; i <= length - 4; i += 4)
+      {
+         sum0 += x[i] * w[wOffset + i];
+         sum1 += x[i + 1] * w[wOffset + i + 1];
+         sum2 += x[i + 2] * w[wOffset + i + 2];
+         sum3 += x[i + 3] * w[wOffset + i + 3];
+      }
+
+      for (; i < length; i++)
+      {
+         sum0 += x[i] * w[wOffset + i];
+      }
+
+      return (sum0 + sum1) + (sum2 + sum3);
+   } // public double dot(double[] x, double[] w, int wOffset, int length)
+
+   /*
+    * Returns the dot product of x[0..length) and w[wOffset..wOffset + length), summed in single precision
+    */
+   public float dot(float[] x, float[] w, int wOffset, int length)
+   {
+      float sum0 = 0.0f, sum1 = 0.0f, sum2 = 0.0f, sum3 = 0.0f;
+      int i = 0;
+
+      for (; i <= length - 4; i += 4)
+      {
+         sum0 += x[i] * w[wOffset + i];
+         sum1 += x[i + 1] * w[wOffset + i + 1];
+         sum2 += x[i + 2] * w[wOffset + i + 2];
+         sum3 += x[i + 3] * w[wOffset + i + 3];
+      }
+
+      for (; i < length; i++)
+      {
+         sum0 += x[i] * w[wOffset + i];
+      }
+
+      return (sum0 + sum1) + (sum2 + sum3);
+   } // public float dot(float[] x, float[] w, int wOffset, int length)
+
+   /*
+    * Returns the dot product of the int8 values x[0..length) and w[wOffset..wOffset + length), which is
+    * exact, so it equals ScalarKernel's
+    */
+   public int dot(byte[] x, byte[] w, int wOffset, int length)
+   {
+      int sum0 = 0, sum1 = 0, sum2 = 0, sum3 = 0;
+      int i = 0;
+
+      for (; i <= length - 4; i += 4)
+      {
+         sum0 += x[i] * w[wOffset + i];
+         sum1 += x[i + 1] * w[wOffset + i + 1];
+         sum2 += x[i + 2] * w[wOffset + i + 2];
+         sum3 += x[i + 3] * w[wOffset + i + 3];
+      }
+
+      for (; i < length; i++)
+      {
+         sum0 += x[i] * w[wOffset + i];
+      }
+
+      return (sum0 + sum1) + (sum2 + sum3);
+   } // public int dot(byte[] x, byte[] w, int wOffset, int length)
+
+   /*
+    * Returns the dot product of the floats x[0..length) and w[wOffset..wOffset + length), summed in double
+    */
+   public double mixedDot(float[] x, float[] w, int wOffset, int length)
+   {
+      double sum0 = 0.0, sum1 = 0.0, sum2 = 0.0, sum3 = 0.0;
+      int i = 0;
+
+      for (; i <= length - 4; i += 4)
+      {
+         sum0 += (double) x[i] * w[wOffset + i];
+         sum1 += (double) x[i + 1] * w[wOffset + i + 1];
+         sum2 += (double) x[i + 2] * w[wOffset + i + 2];
+         sum3 += (double) x[i + 3] * w[wOffset + i + 3];
+      }
+
+      for (; i < length; i++)
+      {
+         sum0 += (double) x[i] * w[wOffset + i];
+      }
+
+      return (sum0 + sum1) + (sum2 + sum3);
+   } // public double mixedDot(float[] x, float[] w, int wOffset, int length)
+
+   /*
+    * Returns the name of the kernel as used in the configuration file
+    */
+   public String name()
+   {
+      return "fourway";
+   }
+
+} // public class FourWayKernel extends ScalarKernel
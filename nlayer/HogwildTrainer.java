@@ -0,0 +1,99 @@
+import java.util.*;
+import java.util.concurrent.*;
+
+/*
+ * Trains each epoch Hogwild style: every worker takes its own contiguous share of the cases, one case at
+ * a time as the serial trainer does, reading and stepping the shared weights without any locks. Each
+ * worker has its own activations, thetas and psi, so only the weights are shared; a worker may read a
+ * row between the steps another worker takes on it, which only perturbs the descent slightly, as long as
+ * the workers rarely step the same weights at the same time. Runs are therefore not reproducible.
+ *
+ * The workers run on the ForkJoinPool of Perceptron, or one after another on the calling thread when
+ * there is none.
+ *
+ * public HogwildTrainer(Perceptron net, ExecutorService pool, Workspace[] spaces, double[][] weights,
+ *                       int noCases, double lambda)
+ * public int trainEpoch(int epoch)
+ * public boolean staleOutputs()
+ * public void shutdown()
+ */
+public class HogwildTrainer implements EpochScheduler
+{
+   private Perceptron net;
+   private ExecutorService pool; // runs the workers, null to run them on the calling thread
+   private Workspace[] spaces; // the scratch arrays of each worker
+   private double[][] weights;
+   private int noCases;
+   private double lambda;
+
+   /*
+    * Creates a trainer with one worker per Workspace
+    *
+    * @param net        the network to train
+    * @param pool       the threads to run the workers on, or null
+    * @param spaces     the training scratch arrays of each worker
+    * @param weights    the weights of the network, one [j][k] buffer per layer
+    * @param noCases    the number of training cases
+    * @param lambda     the learning factor
+    */
+   public HogwildTrainer(Perceptron net, ExecutorService pool, Workspace[] spaces, double[][] weights,
+                         int noCases, double lambda)
+   {
+      this.net = net;
+      this.pool = pool;
+      this.spaces = spaces;
+      this.weights = weights;
+      this.noCases = noCases;
+      this.lambda = lambda;
+   } // public HogwildTrainer(Perceptron net, ExecutorService pool, Workspace[] spaces, double[][] weights, ...)
+
+   /*
+    * Trains one epoch with worker t taking the t-th of the contiguous shares of the cases and updating
+    * the shared weights in place
+    *
+    * @param epoch    the number of epochs trained so far
+    * @return         0, since every case takes its step
+    */
+   public int trainEpoch(int epoch)
+   {
+      List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+
+      for (int t = 0; t < spaces.length; t++)
+      {
+         Workspace ws = spaces[t];
+         int start = t * noCases / spaces.length;
+         int end = (t + 1) * noCases / spaces.length;
+
+         tasks.add(() ->
+         {
+            for (int ii = start; ii < end; ii++)
+            {
+               net.runTrain(ii, ws);
+               net.updateWeights(ii, lambda, ws, weights);
+            }
+
+            return null;
+         });
+      } // for (int t = 0; t < spaces.length; t++)
+
+      Perceptron.invokeAll(pool, tasks);
+
+      return 0;
+   } // public int trainEpoch(int epoch)
+
+   /*
+    * Returns false, since every case is run in the epoch
+    */
+   public boolean staleOutputs()
+   {
+      return false;
+   }
+
+   /*
+    * Does nothing, the pool belongs to Perceptron
+    */
+   public void shutdown()
+   {
+   }
+
+} // public class HogwildTrainer
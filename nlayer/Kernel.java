@@ -0,0 +1,171 @@
+/*
+ * The Kernel interface holds the inner loops of the n-layer perceptron that run over one
+ * contiguous row of a layer's weights. Perceptron calls these for every dot product in the
+ * forward pass and for every row of the weight update, so an implementation only has to
+ * make these loops fast. Each loop has a double version for Perceptron and a float version
+ * for FloatNetwork.
+ *
+ * ScalarKernel is plain Java and always available. VectorKernel uses the JDK Vector API and is
+ * only compiled and loaded when the jdk.incubator.vector module is added, see select.
+ *
+ * public double dot(double[] x, double[] w, int wOffset, int length)
+ * public void accumulate(double a, double[] w, int wOffset, double[] y, int length)
+ * public void updateRow(double lambda, double[] x, double psi, double[] w, int wOffset, int length)
+ * public void updateLayer(double lambda, double[] x, double[] psi, double[] w, int rows, int width)
+ * public float dot(float[] x, float[] w, int wOffset, int length)
+ * public void accumulate(float a, float[] w, int wOffset, float[] y, int length)
+ * public void updateRow(float lambda, float[] x, float psi, float[] w, int wOffset, int length)
+ * public void updateLayer(float lambda, float[] x, float[] psi, float[] w, int rows, int width)
+ * public int dot(byte[] x, byte[] w, int wOffset, int length)
+ * public double mixedDot(float[] x, float[] w, int wOffset, int length)
+ * public void mixedAccumulate(float a, float[] w, int wOffset, double[] y, int length)
+ * public void mixedUpdateRow(double lambda, float[] x, float psi, float[] w, int wOffset, int length)
+ * public void masterUpdateRow(double lambda, float[] x, float psi, double[] master, float[] w, int wOffset, int length)
+ * public String name()
+ * public static Kernel select(String choice)
+ */
+public interface Kernel
+{
+   public static final String VECTOR_KERNEL_CLASS = "VectorKernel"; // loaded by name so Perceptron compiles without the module
+   public static final int UPDATE_TILE = 1024; // number of inputs per cache tile in updateLayer
+
+   /*
+    * Returns the dot product of x[0..length) and w[wOffset..wOffset + length)
+    *
+    * @param x          the activations of a layer
+    * @param w          the flat weights buffer of a layer
+    * @param wOffset    the index in w of the first weight of the row
+    * @param length     the number of elements to multiply
+    */
+   public double dot(double[] x, double[] w, int wOffset, int length);
+
+   /*
+    * Adds a * w[wOffset + i] to y[i] for every i in [0, length)
+    *
+    * @param a          the scale applied to the weights row
+    * @param w          the flat weights buffer of a layer
+    * @param wOffset    the index in w of the first weight of the row
+    * @param y          the array to add into
+    * @param length     the number of elements to add
+    */
+   public void accumulate(double a, double[] w, int wOffset, double[] y, int length);
+
+   /*
+    * Adds lambda * x[i] * psi to w[wOffset + i] for every i in [0, length), which is the
+    * steepest descent step for one row of weights
+    *
+    * @param lambda     the learning factor
+    * @param x          the activations feeding the row
+    * @param psi        the psi value of the activation the row feeds into
+    * @param w          the flat weights buffer of a layer
+    * @param wOffset    the index in w of the first weight of the row
+    * @param length     the number of weights to update
+    */
+   public void updateRow(double lambda, double[] x, double psi, double[] w, int wOffset, int length);
+
+   /*
+    * Takes the steepest descent step for a whole layer, adding lambda * x[m] * psi[k] to the weight in
+    * row k and column m for every row. The columns are walked in tiles of UPDATE_TILE so each tile of x
+    * stays in cache while every row passes over it, and rows are taken two at a time with their psi
+    * values held in registers. Every weight receives the same value as with updateRow.
+    *
+    * @param lambda     the learning factor
+    * @param x          the activations feeding the layer
+    * @param psi        the psi value of each row
+    * @param w          the flat weights buffer of the layer
+    * @param rows       the number of rows of the layer
+    * @param width      the number of weights in each row
+    */
+   public void updateLayer(double lambda, double[] x, double[] psi, double[] w, int rows, int width);
+
+   /*
+    * Returns the dot product of x[0..length) and w[wOffset..wOffset + length), summed in single precision
+    */
+   public float dot(float[] x, float[] w, int wOffset, int length);
+
+   /*
+    * Adds a * w[wOffset + i] to y[i] for every i in [0, length)
+    */
+   public void accumulate(float a, float[] w, int wOffset, float[] y, int length);
+
+   /*
+    * Adds lambda * x[i] * psi to w[wOffset + i] for every i in [0, length)
+    */
+   public void updateRow(float lambda, float[] x, float psi, float[] w, int wOffset, int length);
+
+   /*
+    * Takes the steepest descent step for a whole layer in single precision, see the double version
+    */
+   public void updateLayer(float lambda, float[] x, float[] psi, float[] w, int rows, int width);
+
+   /*
+    * Returns the dot product of the int8 values x[0..length) and w[wOffset..wOffset + length), summed
+    * exactly in an int. The sum cannot overflow for lengths up to 2^31 / 128^2, about 131000.
+    */
+   public int dot(byte[] x, byte[] w, int wOffset, int length);
+
+   /*
+    * Returns the dot product of the floats x[0..length) and w[wOffset..wOffset + length), summed in double.
+    * The product of two floats is exact in double, so only the additions round.
+    */
+   public double mixedDot(float[] x, float[] w, int wOffset, int length);
+
+   /*
+    * Adds a * w[wOffset + i] to the double y[i] for every i in [0, length)
+    */
+   public void mixedAccumulate(float a, float[] w, int wOffset, double[] y, int length);
+
+   /*
+    * Adds lambda * x[i] * psi to w[wOffset + i] for every i in [0, length), computing the new weight in
+    * double and rounding it to float once
+    */
+   public void mixedUpdateRow(double lambda, float[] x, float psi, float[] w, int wOffset, int length);
+
+   /*
+    * Adds lambda * x[i] * psi to the double master weight master[wOffset + i] and stores the result
+    * rounded to float in w[wOffset + i], so steps smaller than the float spacing of a weight still add up
+    */
+   public void masterUpdateRow(double lambda, float[] x, float psi, double[] master, float[] w, int wOffset, int length);
+
+   /*
+    * Returns the name of the kernel as used in the configuration file
+    */
+   public String name();
+
+   /*
+    * Returns the kernel named by the configuration file. "auto" and "vector" try to load the Vector API
+    * kernel and fall back to the scalar kernel when it was not compiled or the jdk.incubator.vector
+    * module is missing at runtime. "tune" is chosen per layer by KernelTuner and selects as "auto" here.
+    *
+    * @param choice    one of "auto", "vector", "scalar", "fourway" or "tune"
+    * @throws IllegalArgumentException    if choice is none of these
+    */
+   public static Kernel select(String choice)
+   {
+      Kernel kernel = new ScalarKernel();
+
+      if (choice.equals("fourway"))
+      {
+         kernel = new FourWayKernel();
+      }
+      else if (!choice.equals("auto") && !choice.equals("vector") && !choice.equals("scalar") && !choice.equals("tune"))
+      {
+         throw new IllegalArgumentException("KERNEL must be auto, vector, scalar, fourway or tune");
+      }
+      else if (!choice.equals("scalar"))
+      {
+         try
+         {
+            kernel = (Kernel) Class.forName(VECTOR_KERNEL_CLASS).getDeclaredConstructor().newInstance();
+         }
+         catch (ReflectiveOperationException | LinkageError e)
+         {
+            if (choice.equals("vector"))
+               System.out.println("Vector kernel unavailable (" + e + "), using the scalar kernel");
+         }
+      } // else if (!choice.equals("scalar"))
+
+      return kernel;
+   } // public static Kernel select(String choice)
+
+} // public interface Kernel
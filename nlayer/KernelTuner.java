@@ -0,0 +1,265 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+/*
+ * Picks the fastest Kernel for each connectivity layer of a network. Every candidate kernel is timed on
+ * the exact work Perceptron does for a layer of that shape: one dot product per row, then the accumulate
+ * and updateRow pass of backpropagation (updateLayer for the first layer). The winner of each shape is
+ * stored in a properties file keyed by the CPU model, the precision and the shape, so later runs on the
+ * same machine read the choice instead of timing again. Deleting the profile forces a new measurement.
+ *
+ * public static Kernel[] tune(int noLayers, int[] noActivations, boolean singlePrecision, String profileFile)
+ * public static List<Kernel> candidates()
+ * public static String cpuModel()
+ * private static Kernel fastest(List<Kernel> candidates, int n, int width, int height, boolean singlePrecision)
+ * private static void pass(Kernel kernel, int n, double[] x, double[] w, double[] psi, double[] y, int width, int height)
+ * private static void pass(Kernel kernel, int n, float[] x, float[] w, float[] psi, float[] y, int width, int height)
+ */
+public class KernelTuner
+{
+   public static final int WARMUP_ROUNDS = 20; // rounds run before timing so every candidate is JIT compiled
+   public static final int TIMED_ROUNDS = 7; // the fastest of these rounds is the candidate's time
+   public static final long MIN_ROUND_NANOS = 1000000L; // a round repeats the pass until it lasts this long
+   public static final double TUNE_LAMBDA = 1.0e-9; // keeps the weights bounded while the pass repeats
+
+   private static double sink; // consumes the dot products so the JIT cannot drop them
+
+   /*
+    * Returns the kernel to use for each connectivity layer, reading the choice from the profile file when
+    * it holds one for this CPU and shape and timing the candidates otherwise. New choices are written back
+    * to the profile.
+    *
+    * @param noLayers           the number of connectivity layers
+    * @param noActivations      the number of activations in each layer
+    * @param singlePrecision    true when the network runs in float
+    * @param profileFile        the path of the tuning profile
+    */
+   public static Kernel[] tune(int noLayers, int[] noActivations, boolean singlePrecision, String profileFile)
+   {
+      List<Kernel> candidates = candidates();
+      Kernel[] layerKernels = new Kernel[noLayers];
+      Properties profile = new Properties();
+      boolean changed = false;
+
+      try (FileInputStream in = new FileInputStream(profileFile))
+      {
+         profile.load(in);
+      }
+      catch (IOException e)
+      {
+         System.out.println("No kernel tuning profile at '" + profileFile + "', timing the kernels");
+      }
+
+      String prefix = cpuModel() + "." + (singlePrecision ? "float" : "double") + ".";
+
+      for (int n = 0; n < noLayers; n++)
+      {
+         String key = prefix + noActivations[n] + "x" + noActivations[n + 1] + (n == 0 ? ".input" : "");
+         String name = profile.getProperty(key, "");
+
+         for (Kernel candidate : candidates)
+         {
+            if (candidate.name().equals(name))
+               layerKernels[n] = candidate;
+         }
+
+         if (layerKernels[n] == null)
+         {
+            layerKernels[n] = fastest(candidates, n, noActivations[n], noActivations[n + 1], singlePrecision);
+            profile.setProperty(key, layerKernels[n].name());
+            changed = true;
+         }
+      } // for (int n = 0; n < noLayers; n++)
+
+      if (changed)
+      {
+         try (FileOutputStream out = new FileOutputStream(profileFile))
+         {
+            profile.store(out, "Fastest kernel per CPU, precision and layer shape (inputs x outputs)");
+         }
+         catch (IOException e)
+         {
+            System.out.println("Could not write the kernel tuning profile (" + e + ")");
+         }
+      }
+
+      return layerKernels;
+   } // public static Kernel[] tune(int noLayers, int[] noActivations, boolean singlePrecision, String profileFile)
+
+   /*
+    * Returns the kernels available in this runtime. The vector kernel is only included when it loads.
+    */
+   public static List<Kernel> candidates()
+   {
+      List<Kernel> candidates = new ArrayList<Kernel>();
+      candidates.add(new ScalarKernel());
+      candidates.add(new FourWayKernel());
+
+      Kernel vector = Kernel.select("auto");
+      if (!(vector instanceof ScalarKernel))
+         candidates.add(vector);
+
+      return candidates;
+   } // public static List<Kernel> candidates()
+
+   /*
+    * Returns the CPU model from /proc/cpuinfo, or the architecture and processor count where that file
+    * does not exist, with every character that is not a letter or digit replaced so it can be a key
+    */
+   public static String cpuModel()
+   {
+      String model = System.getProperty("os.arch") + "-" + Runtime.getRuntime().availableProcessors();
+
+      try
+      {
+         for (String line : Files.readAllLines(Paths.get("/proc/cpuinfo")))
+         {
+            if (line.startsWith("model name"))
+            {
+               model = line.substring(line.indexOf(':') + 1).trim();
+               break;
+            }
+         }
+      }
+      catch (IOException e)
+      {
+         // keep the architecture and processor count
+      }
+
+      return model.replaceAll("[^A-Za-z0-9]+", "_");
+   } // public static String cpuModel()
+
+   /*
+    * Times every candidate on one layer shape and returns the fastest
+    *
+    * @param candidates         the kernels to time
+    * @param n                  the connectivity layer, layer 0 is updated with updateLayer
+    * @param width              the number of activations feeding the layer
+    * @param height             the number of activations the layer feeds
+    * @param singlePrecision    true to time the float methods
+    */
+   private static Kernel fastest(List<Kernel> candidates, int n, int width, int height, boolean singlePrecision)
+   {
+      Random random = new Random(width * 31L + height);
+      double[] x = new double[width], w = new double[width * height], psi = new double[height], y = new double[width];
+      float[] xf = new float[width], wf = new float[width * height], psif = new float[height], yf = new float[width];
+
+      for (int i = 0; i < w.length; i++)
+      {
+         w[i] = random.nextDouble() - 0.5;
+         wf[i] = (float) w[i];
+      }
+      for (int i = 0; i < width; i++)
+      {
+         x[i] = random.nextDouble();
+         xf[i] = (float) x[i];
+      }
+      for (int i = 0; i < height; i++)
+      {
+         psi[i] = random.nextDouble() - 0.5;
+         psif[i] = (float) psi[i];
+      }
+
+      long ops = (long) width * height;
+      int repeats = (int) Math.max(1L, Math.min(1000000L, 200000L / ops));
+      int warmups = (int) Math.max(2L, WARMUP_ROUNDS / Math.max(1L, ops / 100000L));
+
+      Kernel best = candidates.get(0);
+      long bestNanos = Long.MAX_VALUE;
+
+      for (Kernel kernel : candidates)
+      {
+         for (int round = 0; round < warmups * repeats; round++)
+         {
+            if (singlePrecision)
+               pass(kernel, n, xf, wf, psif, yf, width, height);
+            else
+               pass(kernel, n, x, w, psi, y, width, height);
+         }
+
+         long kernelNanos = Long.MAX_VALUE;
+         for (int round = 0; round < TIMED_ROUNDS; round++)
+         {
+            long roundNanos = 0;
+            int passes = 0;
+
+            while (roundNanos < MIN_ROUND_NANOS)
+            {
+               long start = System.nanoTime();
+               for (int r = 0; r < repeats; r++)
+               {
+                  if (singlePrecision)
+                     pass(kernel, n, xf, wf, psif, yf, width, height);
+                  else
+                     pass(kernel, n, x, w, psi, y, width, height);
+               }
+               roundNanos += System.nanoTime() - start;
+               passes += repeats;
+            }
+
+            kernelNanos = Math.min(kernelNanos, roundNanos / passes);
+         } // for (int round = 0; round < TIMED_ROUNDS; round++)
+
+         if (kernelNanos < bestNanos)
+         {
+            bestNanos = kernelNanos;
+            best = kernel;
+         }
+      } // for (Kernel kernel : candidates)
+
+      System.out.println("Tuned layer " + n + " (" + width + "x" + height + "): " + best.name() + ", " + bestNanos + " ns per case");
+      return best;
+   } // private static Kernel fastest(List<Kernel> candidates, int n, int width, int height, boolean singlePrecision)
+
+   /*
+    * Runs the forward and backward work of one case through one layer in double
+    */
+   private static void pass(Kernel kernel, int n, double[] x, double[] w, double[] psi, double[] y, int width, int height)
+   {
+      for (int j = 0; j < height; j++)
+      {
+         sink += kernel.dot(x, w, j * width, width);
+      }
+
+      if (n == 0)
+      {
+         kernel.updateLayer(TUNE_LAMBDA, x, psi, w, height, width);
+      }
+      else
+      {
+         Arrays.fill(y, 0.0);
+         for (int i = 0; i < height; i++)
+         {
+            kernel.accumulate(psi[i], w, i * width, y, width);
+            kernel.updateRow(TUNE_LAMBDA, x, psi[i], w, i * width, width);
+         }
+      }
+   } // private static void pass(Kernel kernel, int n, double[] x, double[] w, double[] psi, double[] y, int width, int height)
+
+   /*
+    * Runs the forward and backward work of one case through one layer in float
+    */
+   private static void pass(Kernel kernel, int n, float[] x, float[] w, float[] psi, float[] y, int width, int height)
+   {
+      for (int j = 0; j < height; j++)
+      {
+         sink += kernel.dot(x, w, j * width, width);
+      }
+
+      if (n == 0)
+      {
+         kernel.updateLayer((float) TUNE_LAMBDA, x, psi, w, height, width);
+      }
+      else
+      {
+         Arrays.fill(y, 0.0f);
+         for (int i = 0; i < height; i++)
+         {
+            kernel.accumulate(psi[i], w, i * width, y, width);
+            kernel.updateRow((float) TUNE_LAMBDA, x, psi[i], w, i * width, width);
+         }
+      }
+   } // private static void pass(Kernel kernel, int n, float[] x, float[] w, float[] psi, float[] y, int width, int height)
+
+} // public class KernelTuner
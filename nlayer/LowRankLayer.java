@@ -0,0 +1,301 @@
+import java.util.*;
+
+/*
+ * A connectivity layer whose rows x width weights matrix W is replaced by the product of two thinner
+ * matrices, W ~ U V, where V holds rank rows of width weights and U holds rows rows of rank weights.
+ * Running the layer takes rank dot products of length width followed by rows dot products of length
+ * rank, which is far less work than rows dot products of length width when rank is small.
+ *
+ * factor computes the best rank-r approximation in the least squares sense: it takes the eigenvectors
+ * of the smaller Gram matrix (W W^T or W^T W) that belong to the r largest eigenvalues, found with the
+ * cyclic Jacobi method, and projects W onto them.
+ *
+ * Both factors use the flat row-major layout of Perceptron's weights, so V is [r][k] and U is [j][r].
+ *
+ * public LowRankLayer(int rows, int width, int rank)
+ * public static LowRankLayer factor(double[] w, int rows, int width, int rank)
+ * public void multiply(Kernel kernel, double[] x, double[] out)
+ * public double getInputFactor(int r, int k)
+ * public void setInputFactor(int r, int k, double value)
+ * public double getOutputFactor(int j, int r)
+ * public void setOutputFactor(int j, int r, double value)
+ * public int getRank()
+ * public int size()
+ * public double retainedEnergy()
+ * private static double[] jacobiEigen(double[] a, int size, double[] vectors)
+ */
+public class LowRankLayer
+{
+   public static final int MAX_SWEEPS = 100; // Jacobi sweeps before giving up on full convergence
+   public static final double JACOBI_TOLERANCE = 1.0e-22; // off-diagonal mass, relative to the trace squared, treated as zero
+
+   private int rows, width, rank;
+   private double[] inputFactor; // V, rank rows of width weights
+   private double[] outputFactor; // U, rows rows of rank weights
+   private double[] temp; // the rank intermediate values of one case
+   private double energy; // fraction of the squared Frobenius norm of W kept by the factors, 1 when unknown
+
+   /*
+    * Allocates zeroed factors for a layer with the given shape
+    *
+    * @param rows     the number of activations the layer feeds
+    * @param width    the number of activations feeding the layer
+    * @param rank     the number of intermediate values
+    */
+   public LowRankLayer(int rows, int width, int rank)
+   {
+      this.rows = rows;
+      this.width = width;
+      this.rank = rank;
+      inputFactor = new double[rank * width];
+      outputFactor = new double[rows * rank];
+      temp = new double[rank];
+      energy = 1.0;
+   } // public LowRankLayer(int rows, int width, int rank)
+
+   /*
+    * Returns the rank-r factorization of a weights buffer laid out as [j][k]. A rank larger than the
+    * smaller dimension of W is lowered to it.
+    *
+    * @param w        the flat weights buffer
+    * @param rows     the number of rows of W
+    * @param width    the number of weights in each row of W
+    * @param rank     the number of intermediate values
+    */
+   public static LowRankLayer factor(double[] w, int rows, int width, int rank)
+   {
+      boolean byRows = rows <= width; // decompose the smaller of W W^T and W^T W
+      int size = byRows ? rows : width;
+      rank = Math.max(1, Math.min(rank, size));
+
+      double[] gram = new double[size * size];
+      double[] vectors = new double[size * size];
+
+      for (int a = 0; a < size; a++)
+      {
+         for (int b = 0; b <= a; b++)
+         {
+            double sum = 0.0;
+            if (byRows)
+            {
+               for (int k = 0; k < width; k++)
+               {
+                  sum += w[a * width + k] * w[b * width + k];
+               }
+            }
+            else
+            {
+               for (int j = 0; j < rows; j++)
+               {
+                  sum += w[j * width + a] * w[j * width + b];
+               }
+            }
+            gram[a * size + b] = sum;
+            gram[b * size + a] = sum;
+         } // for (int b = 0; b <= a; b++)
+      } // for (int a = 0; a < size; a++)
+
+      double[] values = jacobiEigen(gram, size, vectors);
+
+      Integer[] order = new Integer[size];
+      double total = 0.0;
+      for (int i = 0; i < size; i++)
+      {
+         order[i] = i;
+         total += values[i];
+      }
+      Arrays.sort(order, (p, q) -> Double.compare(values[q], values[p]));
+
+      LowRankLayer layer = new LowRankLayer(rows, width, rank);
+      double kept = 0.0;
+
+      for (int r = 0; r < rank; r++)
+      {
+         int e = order[r]; // eigenvector e is column e of vectors
+         kept += values[e];
+
+         if (byRows) // U = Q_r, V = Q_r^T W
+         {
+            for (int j = 0; j < rows; j++)
+            {
+               layer.outputFactor[j * rank + r] = vectors[j * size + e];
+               for (int k = 0; k < width; k++)
+               {
+                  layer.inputFactor[r * width + k] += vectors[j * size + e] * w[j * width + k];
+               }
+            }
+         }
+         else // V = Q_r^T, U = W Q_r
+         {
+            for (int k = 0; k < width; k++)
+            {
+               layer.inputFactor[r * width + k] = vectors[k * size + e];
+            }
+            for (int j = 0; j < rows; j++)
+            {
+               double sum = 0.0;
+               for (int k = 0; k < width; k++)
+               {
+                  sum += w[j * width + k] * vectors[k * size + e];
+               }
+               layer.outputFactor[j * rank + r] = sum;
+            }
+         } // else
+      } // for (int r = 0; r < rank; r++)
+
+      layer.energy = (total > 0.0) ? kept / total : 1.0;
+      return layer;
+   } // public static LowRankLayer factor(double[] w, int rows, int width, int rank)
+
+   /*
+    * Computes out = U (V x), the rows dot products of the layer for the input x
+    *
+    * @param kernel    the kernel that runs the dot products
+    * @param x         the width activations feeding the layer
+    * @param out       the array to write the rows dot products to
+    */
+   public void multiply(Kernel kernel, double[] x, double[] out)
+   {
+      for (int r = 0; r < rank; r++)
+      {
+         temp[r] = kernel.dot(x, inputFactor, r * width, width);
+      }
+
+      for (int j = 0; j < rows; j++)
+      {
+         out[j] = kernel.dot(temp, outputFactor, j * rank, rank);
+      }
+   } // public void multiply(Kernel kernel, double[] x, double[] out)
+
+   /*
+    * Returns the weight from input k to intermediate value r
+    */
+   public double getInputFactor(int r, int k)
+   {
+      return inputFactor[r * width + k];
+   }
+
+   /*
+    * Sets the weight from input k to intermediate value r
+    */
+   public void setInputFactor(int r, int k, double value)
+   {
+      inputFactor[r * width + k] = value;
+   }
+
+   /*
+    * Returns the weight from intermediate value r to output j
+    */
+   public double getOutputFactor(int j, int r)
+   {
+      return outputFactor[j * rank + r];
+   }
+
+   /*
+    * Sets the weight from intermediate value r to output j
+    */
+   public void setOutputFactor(int j, int r, double value)
+   {
+      outputFactor[j * rank + r] = value;
+   }
+
+   /*
+    * Returns the number of intermediate values
+    */
+   public int getRank()
+   {
+      return rank;
+   }
+
+   /*
+    * Returns the number of weights held by both factors
+    */
+   public int size()
+   {
+      return rank * (rows + width);
+   }
+
+   /*
+    * Returns the fraction of the squared Frobenius norm of the original weights kept by the factors
+    */
+   public double retainedEnergy()
+   {
+      return energy;
+   }
+
+   /*
+    * Diagonalizes the symmetric matrix a with cyclic Jacobi rotations and returns its eigenvalues.
+    * Column i of vectors receives the eigenvector of eigenvalue i. The matrix a is overwritten.
+    *
+    * @param a          the symmetric size x size matrix, row-major
+    * @param size       the dimension of the matrix
+    * @param vectors    the size x size array to write the eigenvectors to
+    */
+   private static double[] jacobiEigen(double[] a, int size, double[] vectors)
+   {
+      double trace = 0.0;
+      for (int i = 0; i < size; i++)
+      {
+         vectors[i * size + i] = 1.0;
+         trace += Math.abs(a[i * size + i]);
+      }
+
+      for (int sweep = 0; sweep < MAX_SWEEPS; sweep++)
+      {
+         double off = 0.0;
+         for (int p = 0; p < size; p++)
+         {
+            for (int q = p + 1; q < size; q++)
+            {
+               off += a[p * size + q] * a[p * size + q];
+            }
+         }
+         if (off <= JACOBI_TOLERANCE * trace * trace)
+            break;
+
+         for (int p = 0; p < size; p++)
+         {
+            for (int q = p + 1; q < size; q++)
+            {
+               double apq = a[p * size + q];
+               if (apq == 0.0)
+                  continue;
+
+               double theta = (a[q * size + q] - a[p * size + p]) / (2.0 * apq);
+               double t = Math.signum(theta) / (Math.abs(theta) + Math.sqrt(theta * theta + 1.0));
+               if (theta == 0.0)
+                  t = 1.0;
+               double c = 1.0 / Math.sqrt(t * t + 1.0);
+               double s = t * c;
+
+               for (int i = 0; i < size; i++) // A = A J, then A = J^T A, then V = V J
+               {
+                  double aip = a[i * size + p], aiq = a[i * size + q];
+                  a[i * size + p] = c * aip - s * aiq;
+                  a[i * size + q] = s * aip + c * aiq;
+               }
+               for (int i = 0; i < size; i++)
+               {
+                  double api = a[p * size + i], aqi = a[q * size + i];
+                  a[p * size + i] = c * api - s * aqi;
+                  a[q * size + i] = s * api + c * aqi;
+               }
+               for (int i = 0; i < size; i++)
+               {
+                  double vip = vectors[i * size + p], viq = vectors[i * size + q];
+                  vectors[i * size + p] = c * vip - s * viq;
+                  vectors[i * size + q] = s * vip + c * viq;
+               }
+            } // for (int q = p + 1; q < size; q++)
+         } // for (int p = 0; p < size; p++)
+      } // for (int sweep = 0; sweep < MAX_SWEEPS; sweep++)
+
+      double[] values = new double[size];
+      for (int i = 0; i < size; i++)
+      {
+         values[i] = a[i * size + i];
+      }
+      return values;
+   } // private static double[] jacobiEigen(double[] a, int size, double[] vectors)
+
+} // public class LowRankLayer
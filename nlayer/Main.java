@@ -39,12 +39,37 @@ public class Main
             neuralNet.echoTrainingConfig();
             neuralNet.trainAndReport();
             break;
+         case "runint8":
          case "run":
             neuralNet.allocateRunningArrays();
             neuralNet.populateArrays();
             neuralNet.echoRunConfig();
             neuralNet.runAndReport();
             break;
+         case "quantize":
+            neuralNet.allocateRunningArrays();
+            neuralNet.populateArrays();
+            neuralNet.echoRunConfig();
+            neuralNet.quantizeAndReport();
+            break;
+         case "prune":
+            neuralNet.allocateRunningArrays();
+            neuralNet.populateArrays();
+            neuralNet.echoRunConfig();
+            neuralNet.pruneAndReport();
+            break;
+         case "sparsify":
+            neuralNet.allocateRunningArrays();
+            neuralNet.populateArrays();
+            neuralNet.echoRunConfig();
+            neuralNet.sparsifyAndReport();
+            break;
+         case "factor":
+            neuralNet.allocateRunningArrays();
+            neuralNet.populateArrays();
+            neuralNet.echoRunConfig();
+            neuralNet.factorAndReport();
+            break;
       } // switch (trainOrRun)
 
    } // public static void main(String args[]) throws IOException
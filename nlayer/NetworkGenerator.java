@@ -0,0 +1,252 @@
+import java.io.*;
+import java.lang.invoke.*;
+import java.net.*;
+import java.util.*;
+import javax.tools.*;
+
+/*
+ * Generates an UnrolledNetwork for one fixed topology at startup. The generator writes Java source in
+ * which every loop of the forward pass and of backpropagation is unrolled and every weight is a field,
+ * compiles it in memory with the JDK compiler and defines it as a hidden class next to Perceptron.
+ * The generated code performs the same floating point operations in the same order as Perceptron's
+ * loops, so it gives the same results.
+ *
+ * Unrolled code only pays off for tiny networks, and a method larger than 8000 bytes of bytecode is
+ * never compiled by the JIT. The generated train method takes at most about BYTES_PER_WEIGHT bytes per
+ * weight and BYTES_PER_ACTIVATION bytes per activation (measured over a range of topologies), so larger
+ * networks are not generated. When the network is too large, uses a softmax output (which couples the
+ * outputs and has no per-activation expression), the running JVM has no compiler (a JRE) or anything
+ * else fails, generate returns null and Perceptron keeps its generic loops.
+ *
+ * public static UnrolledNetwork generate(int noLayers, int[] noActivations, int[] activationFunctions)
+ * public static String source(String className, int noLayers, int[] noActivations, int[] activationFunctions)
+ * private static byte[] compile(String className, String source)
+ */
+public class NetworkGenerator
+{
+   public static final int MAX_METHOD_BYTES = 8000; // the JIT does not compile methods with more bytecode
+   public static final int BYTES_PER_WEIGHT = 40; // upper estimate of train bytecode per weight
+   public static final int BYTES_PER_ACTIVATION = 60; // upper estimate of train bytecode per activation
+
+   /*
+    * Returns a generated network for the given topology, or null if it cannot or should not be generated
+    *
+    * @param noLayers               the number of connectivity layers
+    * @param noActivations          the number of activations in each layer
+    * @param activationFunctions    the Activation function of each activation layer
+    */
+   public static UnrolledNetwork generate(int noLayers, int[] noActivations, int[] activationFunctions)
+   {
+      if (activationFunctions[noLayers] == Activation.SOFTMAX)
+      {
+         System.out.println("Softmax outputs cannot be unrolled; using the generic loops");
+         return null;
+      }
+
+      int estimatedBytes = BYTES_PER_ACTIVATION * noActivations[noLayers];
+      for (int n = 0; n < noLayers; n++)
+      {
+         estimatedBytes += BYTES_PER_WEIGHT * noActivations[n] * noActivations[n + 1] + BYTES_PER_ACTIVATION * noActivations[n];
+      }
+
+      if (estimatedBytes > MAX_METHOD_BYTES)
+      {
+         System.out.println("Network is too large to unroll; using the generic loops");
+         return null;
+      }
+
+      String className = "UnrolledNetwork";
+      for (int n = 0; n <= noLayers; n++)
+      {
+         className += "_" + noActivations[n];
+      }
+
+      UnrolledNetwork network = null;
+      try
+      {
+         byte[] classBytes = compile(className, source(className, noLayers, noActivations, activationFunctions));
+
+         if (classBytes != null)
+         {
+            MethodHandles.Lookup generated = MethodHandles.lookup().defineHiddenClass(classBytes, true);
+            network = (UnrolledNetwork) generated.lookupClass().getDeclaredConstructor().newInstance();
+         }
+      }
+      catch (ReflectiveOperationException | LinkageError e)
+      {
+         System.out.println("Could not load the unrolled network (" + e + "); using the generic loops");
+      }
+
+      return network;
+   } // public static UnrolledNetwork generate(int noLayers, int[] noActivations, int[] activationFunctions)
+
+   /*
+    * Returns the Java source of the unrolled network. Activation k of layer n is the local a<n>_<k>, its
+    * psi value is the local p<n>_<k> and the weight from activation k of layer n to activation j of
+    * layer n + 1 is the field w<n>_<j>_<k>, matching the flat [j][k] layout of Perceptron.
+    *
+    * @param className              the name of the generated class
+    * @param noLayers               the number of connectivity layers
+    * @param noActivations          the number of activations in each layer
+    * @param activationFunctions    the Activation function of each activation layer
+    */
+   public static String source(String className, int noLayers, int[] noActivations, int[] activationFunctions)
+   {
+      StringBuilder src = new StringBuilder();
+      StringBuilder forward = new StringBuilder();
+      String weight;
+
+      src.append("public class ").append(className).append(" implements UnrolledNetwork\n{\n");
+
+      for (int n = 0; n < noLayers; n++)
+      {
+         for (int j = 0; j < noActivations[n + 1]; j++)
+         {
+            for (int k = 0; k < noActivations[n]; k++)
+            {
+               src.append("   private double w").append(n).append('_').append(j).append('_').append(k).append(";\n");
+            }
+         }
+      }
+
+      src.append("\n   public void load(double[][] weights)\n   {\n");
+      for (int n = 0; n < noLayers; n++)
+      {
+         for (int index = 0; index < noActivations[n] * noActivations[n + 1]; index++)
+         {
+            src.append("      w").append(n).append('_').append(index / noActivations[n]).append('_').append(index % noActivations[n])
+                  .append(" = weights[").append(n).append("][").append(index).append("];\n");
+         }
+      }
+      src.append("   }\n");
+
+      src.append("\n   public void store(double[][] weights)\n   {\n");
+      for (int n = 0; n < noLayers; n++)
+      {
+         for (int index = 0; index < noActivations[n] * noActivations[n + 1]; index++)
+         {
+            src.append("      weights[").append(n).append("][").append(index).append("] = w").append(n).append('_')
+                  .append(index / noActivations[n]).append('_').append(index % noActivations[n]).append(";\n");
+         }
+      }
+      src.append("   }\n");
+
+      forward.append("      double theta;\n");
+      for (int k = 0; k < noActivations[0]; k++)
+      {
+         forward.append("      double a0_").append(k).append(" = in[").append(k).append("];\n");
+      }
+
+      for (int n = 0; n < noLayers; n++)
+      {
+         for (int j = 0; j < noActivations[n + 1]; j++)
+         {
+            forward.append("      theta = 0.0;\n");
+            for (int k = 0; k < noActivations[n]; k++)
+            {
+               forward.append("      theta += a").append(n).append('_').append(k).append(" * w").append(n).append('_').append(j).append('_').append(k).append(";\n");
+            }
+            forward.append("      double a").append(n + 1).append('_').append(j).append(" = ")
+                  .append(Activation.expression(activationFunctions[n + 1], "theta")).append(";\n");
+         }
+      } // for (int n = 0; n < noLayers; n++)
+
+      for (int i = 0; i < noActivations[noLayers]; i++)
+      {
+         forward.append("      out[").append(i).append("] = a").append(noLayers).append('_').append(i).append(";\n");
+      }
+
+      src.append("\n   public void run(double[] in, double[] out)\n   {\n").append(forward).append("   }\n");
+
+      src.append("\n   public void train(double[] in, double[] target, double[] out, double lambda)\n   {\n").append(forward);
+      src.append("      double omega;\n");
+
+      for (int i = 0; i < noActivations[noLayers]; i++)
+      {
+         src.append("      omega = target[").append(i).append("] - a").append(noLayers).append('_').append(i).append(";\n");
+         src.append("      double p").append(noLayers).append('_').append(i).append(" = ")
+               .append(Activation.derivativeExpression(activationFunctions[noLayers], "a" + noLayers + "_" + i, "omega")).append(";\n");
+      }
+
+      for (int n = noLayers - 1; n >= 1; n--)
+      {
+         for (int j = 0; j < noActivations[n]; j++)
+         {
+            src.append("      omega = 0.0;\n");
+            for (int i = 0; i < noActivations[n + 1]; i++)
+            {
+               weight = "w" + n + "_" + i + "_" + j;
+               src.append("      omega += p").append(n + 1).append('_').append(i).append(" * ").append(weight).append(";\n");
+               src.append("      ").append(weight).append(" += lambda * a").append(n).append('_').append(j)
+                     .append(" * p").append(n + 1).append('_').append(i).append(";\n");
+            }
+            src.append("      double p").append(n).append('_').append(j).append(" = ")
+                  .append(Activation.derivativeExpression(activationFunctions[n], "a" + n + "_" + j, "omega")).append(";\n");
+         }
+      } // for (int n = noLayers - 1; n >= 1; n--)
+
+      for (int k = 0; k < noActivations[1]; k++)
+      {
+         for (int m = 0; m < noActivations[0]; m++)
+         {
+            src.append("      w0_").append(k).append('_').append(m).append(" += lambda * a0_").append(m).append(" * p1_").append(k).append(";\n");
+         }
+      }
+
+      src.append("   }\n}\n");
+      return src.toString();
+   } // public static String source(String className, int noLayers, int[] noActivations, int[] activationFunctions)
+
+   /*
+    * Compiles the source in memory and returns the bytes of the class file, or null if the JDK compiler
+    * is unavailable or the compilation fails
+    *
+    * @param className    the name of the class in the source
+    * @param source       the Java source of the class
+    */
+   private static byte[] compile(String className, String source)
+   {
+      JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+      if (compiler == null)
+      {
+         System.out.println("No Java compiler in this runtime; using the generic loops");
+         return null;
+      }
+
+      ByteArrayOutputStream classBytes = new ByteArrayOutputStream();
+
+      JavaFileObject sourceFile = new SimpleJavaFileObject(URI.create("string:///" + className + ".java"), JavaFileObject.Kind.SOURCE)
+      {
+         public CharSequence getCharContent(boolean ignoreEncodingErrors)
+         {
+            return source;
+         }
+      };
+
+      JavaFileManager fileManager = new ForwardingJavaFileManager<JavaFileManager>(compiler.getStandardFileManager(null, null, null))
+      {
+         public JavaFileObject getJavaFileForOutput(Location location, String name, JavaFileObject.Kind kind, FileObject sibling)
+         {
+            return new SimpleJavaFileObject(URI.create("bytes:///" + name + ".class"), kind)
+            {
+               public OutputStream openOutputStream()
+               {
+                  return classBytes;
+               }
+            };
+         }
+      };
+
+      List<String> options = Arrays.asList("-classpath", System.getProperty("java.class.path"), "-g:none");
+      boolean compiled = compiler.getTask(null, fileManager, null, options, null, Arrays.asList(sourceFile)).call();
+
+      if (!compiled)
+      {
+         System.out.println("Could not compile the unrolled network; using the generic loops");
+         return null;
+      }
+
+      return classBytes.toByteArray();
+   } // private static byte[] compile(String className, String source)
+
+} // public class NetworkGenerator
@@ -0,0 +1,130 @@
+import java.util.concurrent.*;
+
+/*
+ * A fixed team of threads that splits the neurons of one layer between them, so one case passes through
+ * a wide layer faster. The calling thread is member 0 and size - 1 daemon threads are the others. split
+ * hands every member an equal contiguous range of [0, count) and returns once all of them are done.
+ *
+ * The members meet at a Phaser twice per split, once to start and once to finish. An idle member waits
+ * at the start barrier, spinning briefly before it parks, and the Phaser makes every write before an
+ * arrival visible to every member after the barrier, so the task and its results need no other locking.
+ * Two barriers cost a few microseconds, so a split only pays off for layers with many weights.
+ *
+ * Only one thread may call split at a time. shutdown terminates the Phaser, which releases the idle
+ * members from the start barrier and ends their loops.
+ *
+ * public NeuronTeam(int size)
+ * public void split(int count, Range task)
+ * public void shutdown()
+ * private void work(int member)
+ * private void runRange(int member)
+ * public int size()
+ */
+public class NeuronTeam
+{
+   /*
+    * The work on the neurons [start, end) of a layer, done by the given member of the team
+    */
+   public interface Range
+   {
+      public void run(int member, int start, int end);
+   }
+
+   private int size;
+   private Phaser phaser;
+   private Range task; // the range task of the current split, published by the start barrier
+   private int count; // the number of neurons of the current split
+   private Throwable failure; // the first error a member hit during the current split
+
+   /*
+    * Starts the size - 1 daemon members of a team of the given size
+    *
+    * @param size    the number of members, including the calling thread
+    */
+   public NeuronTeam(int size)
+   {
+      this.size = size;
+      phaser = new Phaser(size);
+
+      for (int member = 1; member < size; member++)
+      {
+         int index = member;
+         Thread thread = new Thread(() -> work(index), "neuron-team-" + member);
+         thread.setDaemon(true);
+         thread.start();
+      }
+   } // public NeuronTeam(int size)
+
+   /*
+    * Runs task over [0, count) split into size contiguous ranges, one per member, and waits for all of them
+    *
+    * @param count    the number of neurons to split
+    * @param task     the work on one range of neurons
+    */
+   public void split(int count, Range task)
+   {
+      this.task = task;
+      this.count = count;
+      failure = null;
+
+      phaser.arriveAndAwaitAdvance();
+      runRange(0);
+      phaser.arriveAndAwaitAdvance();
+
+      if (failure != null)
+         throw new IllegalStateException("A neuron team member failed", failure);
+   } // public void split(int count, Range task)
+
+   /*
+    * Ends the loops of the daemon members; the team cannot split after this
+    */
+   public void shutdown()
+   {
+      phaser.forceTermination();
+   }
+
+   /*
+    * The loop of a daemon member: wait for a split, run its range, report at the finish barrier, until
+    * the Phaser is terminated
+    *
+    * @param member    the index of the member
+    */
+   private void work(int member)
+   {
+      while (phaser.arriveAndAwaitAdvance() >= 0)
+      {
+         runRange(member);
+         phaser.arriveAndAwaitAdvance();
+      }
+   } // private void work(int member)
+
+   /*
+    * Runs the range of the current split that belongs to the given member, keeping the first error
+    *
+    * @param member    the index of the member
+    */
+   private void runRange(int member)
+   {
+      try
+      {
+         task.run(member, member * count / size, (member + 1) * count / size);
+      }
+      catch (RuntimeException | Error e)
+      {
+         synchronized (this)
+         {
+            if (failure == null)
+               failure = e;
+         }
+      }
+   } // private void runRange(int member)
+
+   /*
+    * Returns the number of members, including the calling thread
+    */
+   public int size()
+   {
+      return size;
+   }
+
+} // public class NeuronTeam
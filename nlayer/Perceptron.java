@@ -1,5 +1,6 @@
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 /*
  * November 15, 2023
@@ -12,6 +13,44 @@ import java.util.*;
  * 
  * Furthermore, this class can train by backpropagation and run a perceptron by calculating the values of final outputs
  * given any number of inputs and also comparing them to the corresponding user-given expected values.
+ *
+ * With PRECISION = float the inputs, weights and training arrays live in a FloatNetwork instead of the
+ * double arrays of this class, and the methods below hand cases and weights to it. With UNROLL = y small
+ * networks run and train through an UnrolledNetwork generated for their topology at startup.
+ *
+ * With CONV_CHANNELS above 0 the case inputs are images that first pass through a ConvLayer, whose
+ * pooled features are the activations of layer 0, so noInputs and noActivations[0] differ.
+ *
+ * With FREEZE_LAYERS = f the first f connectivity layers (and any convolution layer) keep their weights
+ * while training. Their outputs, the activations of layer f, are computed once per case before the
+ * first epoch, and every epoch runs and trains only the layers above them.
+ *
+ * With CASE_TOLERANCE above 0 a ToleranceScheduler trains each epoch: a case whose error is below it
+ * skips its weight update and is then left out of training altogether until the next recheck epoch,
+ * every RECHECK_INTERVAL epochs.
+ *
+ * With SAMPLING = priority a PrioritySampler trains each epoch on noCases cases drawn in proportion to
+ * their last error raised to PRIORITY_EXPONENT, each step scaled by an importance weight that undoes the
+ * sampling bias.
+ *
+ * The scratch arrays of the double precision network live in a Workspace. With THREADS above 1
+ * runNetwork splits the cases across a ForkJoinPool, each task running its share of the cases with a
+ * Workspace of its own and writing only their rows of outputs.
+ *
+ * With PARALLEL_TRAINING = sync a SyncTrainer takes STEP_CASES cases per step across the THREADS workers,
+ * summing their gradients in a fixed order, so equal seeds and thread counts give equal weights.
+ * With PARALLEL_TRAINING = hogwild a HogwildTrainer has each worker train its own share of the cases on
+ * the shared weights without any locks, so runs are not reproducible.
+ * With PARALLEL_TRAINING = pipeline a PipelineTrainer cuts the trained layers into PIPELINE_STAGES groups,
+ * each run by a thread of its own, with at most MAX_STALENESS + 1 cases in flight; with MAX_STALENESS = 0
+ * it trains exactly as the serial trainer does. Every scheduler trains through the package-private
+ * train, trainForward, trainBackward, runTrain and updateWeights methods of this class.
+ *
+ * With NEURON_THREADS above 1 a NeuronTeam splits the work of one case on a wide layer, one with at least
+ * NEURON_MIN_WEIGHTS weights: the dot products of the forward pass by output neuron, the capitalOmega sums
+ * of backpropagation by input neuron and the weight steps by row. Every value is computed by the same
+ * operations as on one thread, so the results are the same. Only the calling thread's Workspace uses the
+ * team; the workers of the parallel modes keep their layers whole.
  * 
  * public void setConfigParams(String[] args) throws IOException
  * public void allocateTrainingArrays()
@@ -21,23 +60,66 @@ import java.util.*;
  * public void echoTrainingConfig()
  * public void runAndReport()
  * public void trainAndReport() throws IOException
+ * public void factorAndReport() throws IOException
+ * public void quantizeAndReport() throws IOException
+ * public void pruneAndReport() throws IOException
+ * public void sparsifyAndReport() throws IOException
+ * private long timeRunNetwork()
+ * private double[][] copyOutputs()
+ * private void reportOutputChange(double[][] originalOutputs)
+ * private String sparseWeightsString()
+ * private void startWorkers()
+ * private void stopWorkers()
  * public void trainNetwork() throws IOException
+ * private EpochScheduler getScheduler()
+ * private Workspace[] newTrainingSpaces(int count)
+ * private void cacheFrozenActivations()
  * public void runNetwork()
- * private void train(int caseIndex)
- * private void run(int caseIndex)
- * private void runTrain(int caseIndex)
- * private void updateWeights(int caseIndex)
+ * private void runParallel()
+ * void train(int caseIndex, double rate)
+ * void trainForward(int caseIndex)
+ * void trainBackward(int caseIndex, double rate)
+ * static void invokeAll(ExecutorService executor, List<Callable<Void>> tasks)
+ * private boolean splitLayer(int n, Workspace ws)
+ * private void splitDots(int n, double[] x, double[] y)
+ * private void splitBackward(int n, double rate, Workspace ws, double[] target)
+ * private void splitUpdate(int n, double rate, double[] x, double[] psiNext, double[] target)
+ * private void run(int caseIndex, Workspace ws)
+ * private void runInputLayer(int caseIndex, double[] dotProducts, Workspace ws)
+ * private void runBatch(int firstCase, int count, Workspace ws)
+ * private void multiplyBatch(int n, int count, Workspace ws)
+ * void runTrain(int caseIndex, Workspace ws)
+ * void runTrain(int caseIndex, Workspace ws, int first, int last)
+ * void updateWeights(int caseIndex, double rate, Workspace ws, double[][] target)
+ * void updateWeights(int caseIndex, double rate, Workspace ws, double[][] target, int first, int last)
+ * private double sparseDot(double[] x, int[] nonZero, double[] w, int wOffset)
+ * private void sparseUpdateRow(double rate, double[] x, int[] nonZero, double psi, double[] w, int wOffset)
+ * private void findNonZeroInputs()
+ * private int weightIndex(int n, int k, int j)
+ * private double getWeight(int n, int k, int j)
+ * private void setWeight(int n, int k, int j, double value)
+ * private double getInput(int caseIndex, int k)
+ * private void setInput(int caseIndex, int k, double value)
  * private double randWeights(double min, double max)
  * public double meanError()
- * private double errorFunction(int caseIndex)
- * private double sigmoid(double x)
- * private double derivSigmoid(double x)
- * private double activationF(double x)
- * private double derivActivationF(double x)
+ * double errorFunction(int caseIndex)
+ * private int[] getActivationFunctions(String functionString, int noLayers)
+ * private double[] getLayerSparsity(String sparsityString, int noLayers)
  * private String activationString()
+ * private String functionString()
+ * private String kernelString()
+ * private String splitLayerString()
+ * private String stageString()
  * private void printTruthTable(double[][] fOut)
  * private void writeWeights(String weightsFile) throws IOException
+ * private void writeQuantizedWeights(String weightsFile) throws IOException
+ * private void writeSparseWeights(String weightsFile) throws IOException
  * private void loadWeightsFromFile() throws FileNotFoundException
+ * private void loadQuantizedWeights(Scanner scan)
+ * private void loadSparseWeights(Scanner scan)
+ * private void writeConvWeights(String convWeightsFile) throws IOException
+ * private void loadConvWeights(String convWeightsFile) throws FileNotFoundException
+ * private ConvLayer getConvLayer(Properties prop)
  * private void randomizeWeights()
  * private String getConfigFile(String[] args)
  * private int[] getNoActivations(String activationString, int noLayers)
@@ -46,9 +128,11 @@ public class Perceptron
 {
    public int noLayers;
    public int[] noActivations;
+   public int noInputs; // inputs per case, noActivations[0] unless a ConvLayer turns them into features
 
    public String configFile, caseFile;
    public int noCases;
+   public int batchSize;
 
    public int maxIterations, keepAlive;
    public double errorThreshold;
@@ -58,24 +142,70 @@ public class Perceptron
    public double minWeights;
    public double maxWeights;
    public String saveWeightsFile;
+   public String convLoadWeightsFile, convSaveWeightsFile;
 
    public String trainOrRun, randOrLoadWeights;
    public boolean exportWeights;
    public boolean showInputs;
+   public String kernelChoice;
+   public String tuningProfile;
+   public String precision;
+   public boolean masterWeights;
+   public String sigmoidChoice;
+   public int[] activationFunctions; // the Activation function of each activation layer, index 0 is unused
+   public boolean sparseInputs;
+   public boolean unroll;
+   public int freezeLayers; // the number of connectivity layers, from the inputs, that training leaves alone
+   public double caseTolerance; // cases with a lower error skip their weight update, 0 to train every case
+   public int recheckInterval; // converged cases are run again every this many epochs
+   public String sampling; // "sequential" or "priority"
+   public double priorityExponent, correctionExponent;
+   public int threads; // the number of worker threads of the parallel modes, 1 to run on the calling thread only
+   public String parallelTraining; // "none", "sync", "hogwild" or "pipeline"
+   public int stepCases; // the number of cases per synchronous data-parallel step
+   public int pipelineStages; // the number of layer groups of the pipeline, each run by its own thread
+   public int maxStaleness; // the number of earlier cases whose steps a pipelined case may miss
+   public int neuronThreads; // the size of the NeuronTeam that splits wide layers, 1 to keep every layer whole
+   public int neuronMinWeights; // layers with at least this many weights are split across the NeuronTeam
+   public int factorRank;
+   public double pruneFraction;
+   public double[] layerSparsity; // the fraction of the weights of each connectivity layer dropped by sparsify
 
    private double avgError;
    private int epoch;
+   private long skippedUpdates; // weight updates left out by the convergence mask during training
+   private Random random; // seeded by RANDOM_SEED when given, draws the random weights and sampled cases
+   private ForkJoinPool pool; // runs the parallel modes, null when threads is 1 or outside a run or training
+   private Workspace[] taskSpaces; // the scratch arrays of each runParallel task, kept between runs
+   private NeuronTeam team; // splits the neurons of wide layers, null when no layer is split or outside a run or training
+   private boolean[] splitLayers; // the connectivity layers wide enough for the team
+   private double[][] teamPartials; // the capitalOmega sums of each team member's columns in splitBackward
+   private int[] stageBounds; // pipeline stage s trains the connectivity layers stageBounds[s] to stageBounds[s + 1] - 1
 
    private double[][] caseIn;
    private double[][] caseOut;
-   private double[][][] weights;
-   private double[][] activations, thetas;
+   private double[][] weights; // one contiguous [j][k] buffer per layer, see weightIndex
    private double[][] outputs;
-   private double[][] psi;
+   private Workspace workspace; // the scratch arrays of the calling thread
+   private Kernel[] layerKernels; // the kernel of each connectivity layer
+   private FloatNetwork floatNet; // only used when precision is "float" or "mixed"
+   private boolean tableSigmoid;
+   private int[][] nonZeroInputs; // indices of the nonzero inputs of each case, null for cases run densely
+   private double inputDensity; // fraction of all case inputs that are nonzero
+   private UnrolledNetwork unrolled; // holds the live weights while training, see trainNetwork
+   private LowRankLayer lowRank; // replaces weights[0] once the first layer is factorized
+   private QuantizedNetwork quantized; // replaces the weights when quantizing or running int8 weights
+   private CsrLayer[] csrLayers; // replace the weights once they are pruned to SPARSITY
+   private ConvLayer conv; // the convolution and pooling front end, null without CONV_CHANNELS
+   private double[][] frozenActivations; // the activations of layer freezeLayers for every case, see trainNetwork
 
    public static final String DEFAULT_CONFIG_FILE = "./general.cfg"; // the default configuration file path
+   public static final String DEFAULT_TUNING_PROFILE = "./kernels.profile"; // where KERNEL = tune caches its choices
    public static final int CMD_LINE_CONFIG_I = 0; // the index of the configuration file string in the runtime arguments
-   public static final int MK_INDEX = 2; // represents the index of the mk layer
+   public static final int K_TILE = 512; // number of inputs per cache tile in multiplyBatch
+   public static final int REPORT_TIMING_RUNS = 20; // the compression reports time the fastest of this many runs
+   public static final int TASKS_PER_THREAD = 4; // runParallel splits the cases into this many tasks per thread
+   public static final double SOFTMAX_TARGET_TOLERANCE = 1.0e-6; // how far the targets of a case may sum from 1 for softmax
 
    /*
     * Sets the network configuration parameters and stores them as instance variables
@@ -100,6 +230,46 @@ public class Perceptron
       noLayers = Integer.valueOf(prop.getProperty("NO_LAYERS"));
       noActivations = getNoActivations(prop.getProperty("NO_ACTIVATIONS"), noLayers);
       noCases = Integer.valueOf(prop.getProperty("NO_CASES"));
+      batchSize = Math.max(1, Math.min(noCases, Integer.valueOf(prop.getProperty("BATCH_SIZE", "1"))));
+      precision = prop.getProperty("PRECISION", "double");
+      masterWeights = prop.getProperty("MASTER_WEIGHTS", "y").equals("y");
+      sigmoidChoice = prop.getProperty("SIGMOID", "exact");
+      tableSigmoid = sigmoidChoice.equals("table");
+      activationFunctions = getActivationFunctions(prop.getProperty("ACTIVATIONS", ""), noLayers);
+      sparseInputs = prop.getProperty("SPARSE_INPUTS", "n").equals("y");
+      unroll = prop.getProperty("UNROLL", "n").equals("y");
+      freezeLayers = Integer.valueOf(prop.getProperty("FREEZE_LAYERS", "0"));
+      caseTolerance = Double.valueOf(prop.getProperty("CASE_TOLERANCE", "0"));
+      recheckInterval = Math.max(1, Integer.valueOf(prop.getProperty("RECHECK_INTERVAL", "10")));
+      sampling = prop.getProperty("SAMPLING", "sequential");
+      priorityExponent = Double.valueOf(prop.getProperty("PRIORITY_EXPONENT", "0.6"));
+      correctionExponent = Double.valueOf(prop.getProperty("CORRECTION_EXPONENT", "0.4"));
+
+      String seed = prop.getProperty("RANDOM_SEED", "").trim();
+      random = (seed.length() > 0) ? new Random(Long.valueOf(seed)) : new Random();
+
+      threads = Integer.valueOf(prop.getProperty("THREADS", "1"));
+      if (threads <= 0)
+         threads = Runtime.getRuntime().availableProcessors();
+
+      parallelTraining = prop.getProperty("PARALLEL_TRAINING", "none");
+      stepCases = Math.max(1, Integer.valueOf(prop.getProperty("STEP_CASES", "8")));
+      pipelineStages = Integer.valueOf(prop.getProperty("PIPELINE_STAGES", "2"));
+      maxStaleness = Math.max(0, Integer.valueOf(prop.getProperty("MAX_STALENESS", "2")));
+
+      neuronThreads = Integer.valueOf(prop.getProperty("NEURON_THREADS", "1"));
+      if (neuronThreads <= 0)
+         neuronThreads = Runtime.getRuntime().availableProcessors();
+      neuronMinWeights = Integer.valueOf(prop.getProperty("NEURON_MIN_WEIGHTS", "65536"));
+
+      splitLayers = new boolean[noLayers];
+      for (int n = 0; n < noLayers; n++)
+      {
+         splitLayers[n] = neuronThreads > 1 && precision.equals("double") && (long) noActivations[n] * noActivations[n + 1] >= neuronMinWeights;
+      }
+      factorRank = Integer.valueOf(prop.getProperty("FACTOR_RANK", "16"));
+      pruneFraction = Double.valueOf(prop.getProperty("PRUNE_FRACTION", "0.2"));
+      layerSparsity = getLayerSparsity(prop.getProperty("SPARSITY", "0.9"), noLayers);
       maxIterations = Integer.valueOf(prop.getProperty("MAX_ITERATIONS"));
       keepAlive = Integer.valueOf(prop.getProperty("KA_ITERATIONS"));
       errorThreshold = Double.valueOf(prop.getProperty("ERROR_THRESHOLD"));
@@ -119,6 +289,54 @@ public class Perceptron
       }
 
       trainOrRun = prop.getProperty("TRAIN_OR_RUN");
+      if (trainOrRun.equals("runint8") && randOrLoadWeights.equals("rand"))
+         throw new IllegalArgumentException("TRAIN_OR_RUN = runint8 runs the int8 weights of a quantized file; set RAND_OR_LOAD = load");
+
+      if (freezeLayers < 0 || freezeLayers >= noLayers)
+         throw new IllegalArgumentException("FREEZE_LAYERS must leave at least one of the " + noLayers + " layers to train");
+      if (freezeLayers > 0 && !precision.equals("double"))
+         throw new IllegalArgumentException("Frozen layers can only be trained in double precision");
+
+      if (!parallelTraining.equals("none") && !parallelTraining.equals("sync") && !parallelTraining.equals("hogwild")
+          && !parallelTraining.equals("pipeline"))
+         throw new IllegalArgumentException("PARALLEL_TRAINING must be none, sync, hogwild or pipeline");
+      if (!parallelTraining.equals("none") && !precision.equals("double"))
+         throw new IllegalArgumentException("Parallel training only runs in double precision");
+      if (!parallelTraining.equals("none") && (caseTolerance > 0.0 || sampling.equals("priority")))
+         throw new IllegalArgumentException("Parallel training takes every case in order, without CASE_TOLERANCE or priority SAMPLING");
+      if (parallelTraining.equals("pipeline") && (pipelineStages < 1 || pipelineStages > noLayers - freezeLayers))
+         throw new IllegalArgumentException("PIPELINE_STAGES must be between 1 and the " + (noLayers - freezeLayers) + " trained layers");
+      if (parallelTraining.equals("pipeline"))
+         stageBounds = PipelineTrainer.getStageBounds(pipelineStages, freezeLayers, noLayers, noActivations);
+
+      conv = getConvLayer(prop);
+      if (conv != null && !parallelTraining.equals("none"))
+         throw new IllegalArgumentException("The convolution layer cannot be trained in parallel");
+
+      noInputs = noActivations[0];
+      if (conv != null)
+      {
+         if (conv.outputSize() != noActivations[0])
+            throw new IllegalArgumentException("NO_ACTIVATIONS must start with the " + conv.outputSize() + " pooled features of the convolution layer");
+         if (!precision.equals("double") || !(trainOrRun.equals("train") || trainOrRun.equals("run")))
+            throw new IllegalArgumentException("The convolution layer can only be trained or run, in double precision");
+
+         noInputs = conv.inputSize();
+         convLoadWeightsFile = prop.getProperty("CONV_LOAD_WEIGHTS_FILE");
+         convSaveWeightsFile = prop.getProperty("CONV_SAVE_WEIGHTS_FILE");
+      }
+
+      kernelChoice = prop.getProperty("KERNEL", "auto");
+      tuningProfile = prop.getProperty("TUNING_PROFILE", DEFAULT_TUNING_PROFILE);
+      if (kernelChoice.equals("tune"))
+      {
+         layerKernels = KernelTuner.tune(noLayers, noActivations, !precision.equals("double"), tuningProfile);
+      }
+      else
+      {
+         layerKernels = new Kernel[noLayers];
+         Arrays.fill(layerKernels, Kernel.select(kernelChoice));
+      }
    } // public void setConfigParams(String[] args) throws IOException
 
    /*
@@ -130,17 +348,13 @@ public class Perceptron
    {
       allocateRunningArrays();
 
-      thetas = new double[noLayers + 1][];
-      for (int n = 0; n <= noLayers; n++)
+      if (floatNet != null)
       {
-         thetas[n] = new double[noActivations[n]];
+         floatNet.allocateTrainingArrays();
+         return;
       }
 
-      psi = new double[noLayers + 1][];
-      for (int n = 0; n <= noLayers; n++)
-      {
-         psi[n] = new double[noActivations[n]];
-      }
+      workspace.allocateTrainingArrays(noLayers, noActivations);
 
    } // public void allocateTrainingArrays()
 
@@ -151,23 +365,33 @@ public class Perceptron
     */  
    public void allocateRunningArrays()
    {
-      activations = new double[noLayers + 1][];
-      for (int n = 0; n <= noLayers; n++)
+      caseOut = new double[noCases][noActivations[noLayers]];
+      outputs = new double[noCases][noActivations[noLayers]];
+
+      if (trainOrRun.equals("runint8")) // the int8 weights replace the double weights
       {
-         activations[n] = new double[noActivations[n]];
+         quantized = new QuantizedNetwork(noLayers, noActivations, layerKernels, activationFunctions);
+         caseIn = new double[noCases][noInputs];
+         return;
       }
 
-      caseIn = new double[noCases][noActivations[0]];
-      caseOut = new double[noCases][noActivations[noLayers]];
+      if (precision.equals("float") || precision.equals("mixed"))
+      {
+         floatNet = new FloatNetwork(noLayers, noActivations, noCases, layerKernels, activationFunctions,
+                                     precision.equals("mixed"), masterWeights);
+         return;
+      }
+
+      workspace = new Workspace(noLayers, noActivations, batchSize);
+
+      caseIn = new double[noCases][noInputs];
 
-      weights = new double[noLayers][][];
+      weights = new double[noLayers][];
       for (int n = 0; n < noLayers; n++)
       {
-         weights[n] = new double[noActivations[n]][noActivations[n + 1]];
+         weights[n] = new double[noActivations[n + 1] * noActivations[n]];
       }
 
-      outputs = new double[noCases][noActivations[noLayers]];
-
    } // public void allocateRunningArrays()
 
    /*
@@ -183,18 +407,32 @@ public class Perceptron
       for (int ii = 0; ii < noCases; ii++)
       {
          caseInOut = scan.nextLine().split(" ");
-         for (k = 0; k < noActivations[0]; k++)
+         for (k = 0; k < noInputs; k++)
          {
-            caseIn[ii][k] = Double.valueOf(caseInOut[k]);
+            setInput(ii, k, Double.valueOf(caseInOut[k]));
          }
          
-         for (int i = k; i < noActivations[0] + noActivations[noLayers]; i++)
+         for (int i = k; i < noInputs + noActivations[noLayers]; i++)
          {
             caseOut[ii][i - k] = Double.valueOf(caseInOut[i]);
          }
 
+         if (activationFunctions[noLayers] == Activation.SOFTMAX) // the T - F gradient of softmax needs targets summing to 1
+         {
+            double sum = 0.0;
+            for (int i = 0; i < noActivations[noLayers]; i++)
+            {
+               sum += caseOut[ii][i];
+            }
+
+            if (Math.abs(sum - 1.0) > SOFTMAX_TARGET_TOLERANCE)
+               throw new IllegalArgumentException("Softmax outputs need targets that sum to 1, but those of case " + ii + " sum to " + sum);
+         }
       } // for (int ii = 0; ii < noCases; ii++)
 
+      if (sparseInputs && floatNet == null && quantized == null && conv == null)
+         findNonZeroInputs();
+
       boolean load = weightsFile.length() >= 1;
       
       if (load)
@@ -202,6 +440,14 @@ public class Perceptron
       else
          randomizeWeights();
 
+      if (unroll && floatNet == null && lowRank == null && quantized == null && csrLayers == null && conv == null && freezeLayers == 0
+          && parallelTraining.equals("none"))
+      {
+         unrolled = NetworkGenerator.generate(noLayers, noActivations, activationFunctions);
+         if (unrolled != null)
+            unrolled.load(weights);
+      }
+
    } // public void populateArrays()
 
    /*
@@ -228,8 +474,29 @@ public class Perceptron
 
       System.out.println("\nNETWORK CONFIGURATION\n-------------------------");
 
+      if (conv != null)
+         System.out.println("Convolution: " + conv.shapeString());
       System.out.println("Activations:");
       System.out.println(activationString());
+      System.out.println("Batch size: " + batchSize);
+      System.out.println("Kernels: " + kernelString());
+      System.out.println("Precision: " + precision);
+      if (precision.equals("mixed"))
+         System.out.println("Master weights: " + (masterWeights ? "double" : "none"));
+      System.out.println("Sigmoid: " + sigmoidChoice);
+      System.out.println("Activation functions: " + functionString());
+      if (nonZeroInputs != null)
+         System.out.printf("Sparse inputs: %.1f%% of the inputs are nonzero%n", 100.0 * inputDensity);
+      if (splitLayerString().length() > 0)
+         System.out.println("Layers split across " + neuronThreads + " neuron threads: " + splitLayerString());
+      if (unrolled != null)
+         System.out.println("Unrolled network generated for " + activationString());
+      if (lowRank != null)
+         System.out.println("Factorized first layer of rank " + lowRank.getRank());
+      if (csrLayers != null)
+         System.out.println("Sparse weights: " + sparseWeightsString());
+      if (quantized != null)
+         System.out.println("Int8 weights: " + quantized.size() + " bytes");
 
       System.out.println("\nTRUTH TABLE (T)");
       printTruthTable(caseOut);
@@ -261,8 +528,28 @@ public class Perceptron
 
       System.out.println("\nNETWORK CONFIGURATION\n-------------------------");
 
+      if (conv != null)
+         System.out.println("Convolution: " + conv.shapeString());
       System.out.println("Activations:");
       System.out.println(activationString());
+      System.out.println("Kernels: " + kernelString());
+      System.out.println("Precision: " + precision);
+      if (precision.equals("mixed"))
+         System.out.println("Master weights: " + (masterWeights ? "double" : "none"));
+      System.out.println("Sigmoid: " + sigmoidChoice);
+      System.out.println("Activation functions: " + functionString());
+      if (nonZeroInputs != null)
+         System.out.printf("Sparse inputs: %.1f%% of the inputs are nonzero%n", 100.0 * inputDensity);
+      if (splitLayerString().length() > 0)
+         System.out.println("Layers split across " + neuronThreads + " neuron threads: " + splitLayerString());
+      if (unrolled != null)
+         System.out.println("Unrolled network generated for " + activationString());
+      if (lowRank != null)
+         System.out.println("Factorized first layer of rank " + lowRank.getRank());
+      if (csrLayers != null)
+         System.out.println("Sparse weights: " + sparseWeightsString());
+      if (quantized != null)
+         System.out.println("Int8 weights: " + quantized.size() + " bytes");
 
       System.out.println("\nTRUTH TABLE (T)");
       printTruthTable(caseOut);
@@ -272,6 +559,18 @@ public class Perceptron
       System.out.println("Maximum iterations: " + maxIterations);
       System.out.println("Error threshold: " + errorThreshold);
       System.out.println("Lambda value: " + lambda);
+      if (freezeLayers > 0)
+         System.out.println("Frozen layers: " + freezeLayers + " (training starts from the " + noActivations[freezeLayers] + " activations of layer " + freezeLayers + ")");
+      if (caseTolerance > 0.0)
+         System.out.println("Case tolerance: " + caseTolerance + ", rechecked every " + recheckInterval + " iterations");
+      if (sampling.equals("priority"))
+         System.out.println("Sampling: priority, exponent " + priorityExponent + ", correction " + correctionExponent + " to 1");
+      if (parallelTraining.equals("sync"))
+         System.out.println("Parallel training: sync, " + stepCases + " cases per step on " + threads + " threads");
+      if (parallelTraining.equals("hogwild"))
+         System.out.println("Parallel training: hogwild, lock-free on " + threads + " threads");
+      if (parallelTraining.equals("pipeline"))
+         System.out.println("Parallel training: pipeline, layers " + stageString() + ", staleness at most " + maxStaleness + " cases");
 
       System.out.println("\n-------------------------");
    } // public void printTrainingConfig()
@@ -281,7 +580,16 @@ public class Perceptron
     */
    public void runAndReport()
    {
-      runNetwork();
+      startWorkers();
+      try
+      {
+         runNetwork();
+      }
+      finally
+      {
+         stopWorkers();
+      }
+
       System.out.println("\nTRUTH TABLE (F)");
       printTruthTable(outputs);
    }
@@ -295,13 +603,27 @@ public class Perceptron
    public void trainAndReport() throws IOException
    {
       long start = System.currentTimeMillis();
-      trainNetwork();
-      long end = System.currentTimeMillis();
+      long end;
 
-      runAndReport();
+      startWorkers();
+      try
+      {
+         trainNetwork();
+         end = System.currentTimeMillis();
+
+         runAndReport();
+      }
+      finally
+      {
+         stopWorkers();
+      }
 
       if (exportWeights)
+      {
          writeWeights(saveWeightsFile);
+         if (conv != null)
+            writeConvWeights(convSaveWeightsFile);
+      }
 
       System.out.println("\nTRAINING EXIT INFO\n-------------------------");
       System.out.print("Training stopped because: ");
@@ -314,366 +636,1604 @@ public class Perceptron
       System.out.println("Mean Error: " + avgError);
       System.out.println("Iterations reached: " + epoch);
       System.out.println("Time of training (ms): " + (end - start));
+      System.out.printf("Training throughput (cases/s): %.1f%n", 1000.0 * epoch * noCases / Math.max(1, end - start));
+      if (caseTolerance > 0.0)
+         System.out.printf("Weight updates skipped: %.1f%%%n", 100.0 * skippedUpdates / Math.max(1, (long) epoch * noCases));
    } // public void trainAndReport() throws IOException
 
    /*
-    * Trains the network using steepest descent to minimize the error value and near the target values.
-    * 
-    * Training ends if the maximum number of iterations is reached or the calculated error
-    * is below the error threshold.
+    * Factorizes the first connectivity layer into two matrices of rank FACTOR_RANK and reports how much
+    * the outputs on the loaded cases change and how much faster they run. Saves the factorized weights
+    * if a file path is provided.
     *
     * @throws IOException    if there is an error during input or output operations
     */
-   public void trainNetwork() throws IOException
+   public void factorAndReport() throws IOException
    {
-      epoch = 0;
-      avgError = Double.MAX_VALUE;
+      if (floatNet != null)
+         throw new IllegalArgumentException("Factorizing needs double precision weights");
 
-      while (epoch < maxIterations && avgError > errorThreshold)
-      {
-         for (int ii = 0; ii < noCases; ii++)
-         {
-            train(ii);
-         }
+      long originalNanos = timeRunNetwork();
+      double originalError = meanError();
+      double[][] originalOutputs = copyOutputs();
 
-         if ((epoch + 1) % keepAlive == 0)
-         {
-            System.out.println("Iteration #" + (epoch + 1) + " Avg Error: " + avgError);
-         }
+      int originalSize = noActivations[0] * noActivations[1];
+      lowRank = LowRankLayer.factor(weights[0], noActivations[1], noActivations[0], factorRank);
+      unrolled = null;
 
-         avgError = meanError();
-         epoch++;
-      }
-   } // public void trainNetwork() throws IOException
+      long factoredNanos = timeRunNetwork();
+      double factoredError = meanError();
 
-   /*
-    * Runs the network for all the given test cases
-    */
-   public void runNetwork()
-   {
-      for (int ii = 0; ii < noCases; ii++)
-      {
-         run(ii);
-      }
-   }
+      System.out.println("\nTRUTH TABLE (F), FACTORIZED");
+      printTruthTable(outputs);
+
+      if (exportWeights)
+         writeWeights(saveWeightsFile);
+
+      System.out.println("\nFACTORIZATION INFO\n-------------------------");
+      System.out.println("Rank: " + lowRank.getRank());
+      System.out.printf("First layer weights: %d -> %d (%.1f%%)%n", originalSize, lowRank.size(), 100.0 * lowRank.size() / originalSize);
+      System.out.printf("Retained energy of the first layer: %.6f%n", lowRank.retainedEnergy());
+      System.out.println("Mean Error (original): " + originalError);
+      System.out.println("Mean Error (factorized): " + factoredError);
+      System.out.println("Accuracy drop (mean error increase): " + (factoredError - originalError));
+      reportOutputChange(originalOutputs);
+      System.out.printf("Run time (ms), original -> factorized: %.3f -> %.3f%n", originalNanos / 1.0e6, factoredNanos / 1.0e6);
+   } // public void factorAndReport() throws IOException
 
    /*
-    * Trains the network for the given case and adjusts the values of the weights based on the learning factor
-    *
-    * @param caseIndex  the given training case to train the network on
-    *
-    */
-   private void train(int caseIndex)
-   {
-      runTrain(caseIndex);
-      updateWeights(caseIndex);
-   } // private void train(int caseIndex)
-   
-   /*
-    * Runs the network by calculating the output values for the given test case
+    * Quantizes every layer to int8 with one scale per activation and reports how much the outputs on the
+    * loaded cases change, the memory taken by the weights and the run throughput of both versions. Saves
+    * the quantized weights if a file path is provided.
     *
-    * @param caseIndex  the given test case to run the network on
+    * @throws IOException    if there is an error during input or output operations
     */
-   private void run(int caseIndex)
+   public void quantizeAndReport() throws IOException
    {
-      double dotProduct;
+      if (floatNet != null || lowRank != null)
+         throw new IllegalArgumentException("Quantizing needs plain double precision weights");
 
-      for (int k = 0; k < noActivations[0]; k++)
-      {
-         activations[0][k] = caseIn[caseIndex][k];
-      }
+      long originalNanos = timeRunNetwork();
+      double originalError = meanError();
+      double[][] originalOutputs = copyOutputs();
 
+      long originalBytes = 0;
       for (int n = 0; n < noLayers; n++)
       {
-         for (int j = 0; j < noActivations[n + 1]; j++)
-         {
-            dotProduct = 0.0;
+         originalBytes += (long) Double.BYTES * weights[n].length;
+      }
 
-            for (int k = 0; k < noActivations[n]; k++)
-            {
-               dotProduct += activations[n][k] * weights[n][k][j];
-            }
-            activations[n + 1][j] = activationF(dotProduct);
-         }
-      } // for (int n = 0; n < noLayers; n++)
+      quantized = new QuantizedNetwork(noLayers, noActivations, layerKernels, activationFunctions);
+      quantized.quantize(weights);
 
-      for (int i = 0; i < noActivations[noLayers]; i++)
-      {
-         outputs[caseIndex][i] = activations[noLayers][i];
-      }
-   } // private void run(int caseIndex)
+      long quantizedNanos = timeRunNetwork();
+      double quantizedError = meanError();
+
+      System.out.println("\nTRUTH TABLE (F), INT8");
+      printTruthTable(outputs);
+
+      if (exportWeights)
+         writeQuantizedWeights(saveWeightsFile);
+
+      System.out.println("\nQUANTIZATION INFO\n-------------------------");
+      System.out.printf("Weights memory (bytes): %d -> %d (%.1f%%)%n", originalBytes, quantized.size(), 100.0 * quantized.size() / originalBytes);
+      System.out.println("Mean Error (double): " + originalError);
+      System.out.println("Mean Error (int8): " + quantizedError);
+      System.out.println("Accuracy drop (mean error increase): " + (quantizedError - originalError));
+      reportOutputChange(originalOutputs);
+      System.out.printf("Run throughput (cases/s), double -> int8: %.1f -> %.1f%n", 1.0e9 * noCases / originalNanos, 1.0e9 * noCases / quantizedNanos);
+   } // public void quantizeAndReport() throws IOException
 
    /*
-    * Runs the network by calculating the output values for the given test case
-    * and stores the dot products in the thetas array.
+    * Removes the least useful neurons of every hidden layer and reports how the outputs on the loaded
+    * cases change. Each hidden activation is scored by the standard deviation of its value over the cases
+    * times the norm of its outgoing weights, which measures how much it can move the next layer; a
+    * neuron that barely varies or barely feeds forward scores near 0. The lowest PRUNE_FRACTION of each
+    * hidden layer is dropped along with its incoming and outgoing weights. The network has no biases, so
+    * the mean contribution of each dropped neuron is folded into the outgoing weights of the kept neuron
+    * that is closest to a constant, which then carries it as a bias would. Prints the new NO_ACTIVATIONS
+    * line and saves the smaller weights if a file path is provided.
     *
-    * @param caseIndex  the given test case to run the network on
+    * @throws IOException    if there is an error during input or output operations
     */
-   private void runTrain(int caseIndex)
+   public void pruneAndReport() throws IOException
    {
-      for (int k = 0; k < noActivations[0]; k++)
+      if (floatNet != null || lowRank != null)
+         throw new IllegalArgumentException("Pruning needs plain double precision weights");
+
+      long originalNanos = timeRunNetwork();
+      double originalError = meanError();
+      double[][] originalOutputs = copyOutputs();
+      String originalActivations = activationString();
+
+      double[][] sums = new double[noLayers][];
+      double[][] squares = new double[noLayers][];
+      for (int n = 1; n < noLayers; n++)
       {
-         activations[0][k] = caseIn[caseIndex][k];
+         sums[n] = new double[noActivations[n]];
+         squares[n] = new double[noActivations[n]];
       }
 
-      for (int n = 0; n < noLayers - 1; n++)
+      double[][] activations = workspace.activations;
+      for (int ii = 0; ii < noCases; ii++)
       {
-         for (int j = 0; j < noActivations[n + 1]; j++)
+         run(ii, workspace);
+         for (int n = 1; n < noLayers; n++)
          {
-            thetas[n + 1][j] = 0.0;
-
             for (int k = 0; k < noActivations[n]; k++)
             {
-               thetas[n + 1][j] += activations[n][k] * weights[n][k][j];
+               sums[n][k] += activations[n][k];
+               squares[n][k] += activations[n][k] * activations[n][k];
             }
-            activations[n + 1][j] = activationF(thetas[n + 1][j]);
          }
-      } // for (int n = 0; n < noLayers; n++)
+      } // for (int ii = 0; ii < noCases; ii++)
 
-      double omega;
-      for (int i = 0; i < noActivations[noLayers]; i++) // loop for running over the last layer and calculating psi values
+      int[] keptActivations = noActivations.clone();
+      int[][] kept = new int[noLayers + 1][];
+
+      for (int n = 1; n < noLayers; n++)
       {
-         thetas[noLayers][i] = 0.0;
+         double[] score = new double[noActivations[n]];
+         Integer[] order = new Integer[noActivations[n]];
 
-         for (int j = 0; j < noActivations[noLayers - 1]; j++)
+         for (int k = 0; k < noActivations[n]; k++)
          {
-            thetas[noLayers][i] += activations[noLayers - 1][j] * weights[noLayers - 1][j][i]; 
-         }
-         activations[noLayers][i] = activationF(thetas[noLayers][i]);
-         outputs[caseIndex][i] = activations[noLayers][i]; // loading activations to output (F) array
-
-         omega = caseOut[caseIndex][i] - outputs[caseIndex][i];
-         psi[noLayers][i] = omega * derivActivationF(thetas[noLayers][i]);
-      } // for (int i = 0; i < noActivations[noLayers]; i++)
+            double mean = sums[n][k] / noCases;
+            double variance = Math.max(0.0, squares[n][k] / noCases - mean * mean);
+            double norm = 0.0;
+            for (int j = 0; j < noActivations[n + 1]; j++)
+            {
+               norm += getWeight(n, k, j) * getWeight(n, k, j);
+            }
+            score[k] = Math.sqrt(variance * norm);
+            order[k] = k;
+         } // for (int k = 0; k < noActivations[n]; k++)
 
-   } // private void runTrain(int caseIndex)
+         Arrays.sort(order, (p, q) -> Double.compare(score[q], score[p]));
+         keptActivations[n] = Math.max(1, (int) Math.round(noActivations[n] * (1.0 - pruneFraction)));
 
-   /*
-    * Updates the weights based on updated activation node values and the partial derivative
-    * of the error.
-    *
-    * @param caseIndex  the given training case to update the weights of the network for
-    *
-    */
-   private void updateWeights(int caseIndex)
-   {
-      double capitalOmega, deltaWeights;
-      for (int n = noLayers - 1; n >= MK_INDEX; n--)
-      {
-         for (int j = 0; j < noActivations[n]; j++)
+         kept[n] = new int[keptActivations[n]];
+         for (int k = 0; k < keptActivations[n]; k++)
          {
-            capitalOmega = 0.0;
+            kept[n][k] = order[k];
+         }
+         Arrays.sort(kept[n]); // keep the surviving neurons in their original order
 
-            for (int i = 0; i < noActivations[n + 1]; i++)
+         int carrier = kept[n][0];
+         double carrierRatio = -1.0;
+         for (int c : kept[n])
+         {
+            double mean = sums[n][c] / noCases;
+            double ratio = mean * mean / (Math.max(0.0, squares[n][c] / noCases - mean * mean) + Double.MIN_NORMAL);
+            if (ratio > carrierRatio)
             {
-               capitalOmega += psi[n + 1][i] * weights[n][j][i];
-               deltaWeights = lambda * activations[n][j] * psi[n + 1][i];
-               weights[n][j][i] += deltaWeights;
+               carrier = c;
+               carrierRatio = ratio;
             }
+         }
 
-            psi[n][j] = derivActivationF(thetas[n][j]) * capitalOmega;
-         } // for (int j = 0; j < noActivations[n]; j++)
-      } // for (int n = noLayers - 1; n >= MK_INDEX; n--)
-
-      for (int k = 0; k < noActivations[1]; k++) // loop to calculate weights for first and second layers
-      {
-         capitalOmega = 0.0;
-
-         for (int j = 0; j < noActivations[MK_INDEX]; j++)
+         double carrierMean = sums[n][carrier] / noCases;
+         for (int k = 0; k < noActivations[n] && carrierMean != 0.0; k++)
          {
-            capitalOmega += psi[MK_INDEX][j] * weights[1][k][j];
-            deltaWeights = lambda * activations[1][k] * psi[MK_INDEX][j];
-            weights[1][k][j] += deltaWeights;
+            if (Arrays.binarySearch(kept[n], k) < 0)
+            {
+               for (int j = 0; j < noActivations[n + 1]; j++)
+               {
+                  weights[n][weightIndex(n, carrier, j)] += weights[n][weightIndex(n, k, j)] * (sums[n][k] / noCases) / carrierMean;
+               }
+            }
          }
 
-         psi[1][k] = derivActivationF(thetas[1][k]) * capitalOmega;
+         System.out.printf("Layer %d: keeping %d of %d, lowest kept score %.6g%n", n, keptActivations[n], noActivations[n],
+                           score[order[keptActivations[n] - 1]]);
+      } // for (int n = 1; n < noLayers; n++)
 
-         for (int m = 0; m < noActivations[0]; m++)
+      double[][] prunedWeights = new double[noLayers][];
+      for (int n = 0; n < noLayers; n++)
+      {
+         prunedWeights[n] = new double[keptActivations[n] * keptActivations[n + 1]];
+
+         for (int j = 0; j < keptActivations[n + 1]; j++)
          {
-            deltaWeights = lambda * activations[0][m] * psi[1][k];
-            weights[0][m][k] += deltaWeights;
+            int oldJ = (kept[n + 1] != null) ? kept[n + 1][j] : j;
+            for (int k = 0; k < keptActivations[n]; k++)
+            {
+               int oldK = (kept[n] != null) ? kept[n][k] : k;
+               prunedWeights[n][j * keptActivations[n] + k] = weights[n][weightIndex(n, oldK, oldJ)];
+            }
          }
-      } // for (int k = 0; k < noActivations[1]; k++)
+      } // for (int n = 0; n < noLayers; n++)
 
-   } // public void updateWeights(int caseIndex)
+      noActivations = keptActivations;
+      weights = prunedWeights;
+      unrolled = null;
+      workspace = new Workspace(noLayers, noActivations, batchSize);
+      taskSpaces = null;
 
-   /*
-    * Generates a random value for a weight within the given range
-    * 
-    * @param min  the lower end of the range within which weights are randomized
-    * @param max  the upper end of the range within which weights are randomized
-    */
-   private double randWeights(double min, double max)
-   {
-      return Math.random() * (max - min) + min;
-   }
+      long prunedNanos = timeRunNetwork();
+      double prunedError = meanError();
 
-   /*
-    * Calculates the average error value based on the sum of error values returned from running all test cases
-    */
-   public double meanError()
-   {
-      double totalError = 0.0;
+      System.out.println("\nTRUTH TABLE (F), PRUNED");
+      printTruthTable(outputs);
 
-      for (int ii = 0; ii < noCases; ii++)
-      {
-         totalError += errorFunction(ii);
-      }
+      if (exportWeights)
+         writeWeights(saveWeightsFile);
 
-      return totalError / (double) noCases;
-   } // public double meanError()
+      System.out.println("\nPRUNING INFO\n-------------------------");
+      System.out.println("Activations: " + originalActivations + " -> " + activationString());
+      System.out.println("NO_ACTIVATIONS = " + activationString().replace('-', ' '));
+      System.out.println("Mean Error (original): " + originalError);
+      System.out.println("Mean Error (pruned): " + prunedError);
+      System.out.println("Accuracy drop (mean error increase): " + (prunedError - originalError));
+      reportOutputChange(originalOutputs);
+      System.out.printf("Run time (ms), original -> pruned: %.3f -> %.3f%n", originalNanos / 1.0e6, prunedNanos / 1.0e6);
+   } // public void pruneAndReport() throws IOException
 
    /*
-    * Computes the error for one given case using the formula 1/2(F - T)^2
+    * Drops the smallest weights of every layer until each layer reaches its SPARSITY, stores the rest in
+    * compressed sparse rows and reports how much the outputs on the loaded cases change, the memory taken
+    * by the weights and the run time of both versions. Saves the sparse weights if a file path is provided.
     *
-    * @param caseIndex  the given training case to minimize the error function for
+    * @throws IOException    if there is an error during input or output operations
     */
-   private double errorFunction(int caseIndex)
+   public void sparsifyAndReport() throws IOException
    {
-      double error = 0.0;
+      if (floatNet != null || lowRank != null)
+         throw new IllegalArgumentException("Sparse weights need plain double precision weights");
 
-      for (int i = 0; i < noActivations[noLayers]; i++)
+      long originalNanos = timeRunNetwork();
+      double originalError = meanError();
+      double[][] originalOutputs = copyOutputs();
+
+      long originalBytes = 0, sparseBytes = 0;
+      csrLayers = new CsrLayer[noLayers];
+      for (int n = 0; n < noLayers; n++)
       {
-         error += (caseOut[caseIndex][i] - outputs[caseIndex][i]) * (caseOut[caseIndex][i] - outputs[caseIndex][i]);
+         csrLayers[n] = CsrLayer.prune(weights[n], noActivations[n + 1], noActivations[n], layerSparsity[n]);
+         originalBytes += (long) Double.BYTES * weights[n].length;
+         sparseBytes += (long) (Double.BYTES + Integer.BYTES) * csrLayers[n].nonZeros() + (long) Integer.BYTES * (noActivations[n + 1] + 1);
       }
+      unrolled = null;
 
-      return error / 2.0;
-
-   } // private double errorFunction(int caseIndex)
+      long sparseNanos = timeRunNetwork();
+      double sparseError = meanError();
 
-   /*
-    * Calculates the sigmoid function for a given value x
-    *
-    * @param x    the value passed to the sigmoid function
-    */
-   private double sigmoid(double x)
-   {
-      return 1.0 / (1.0 + Math.exp(-x));
-   }
+      System.out.println("\nTRUTH TABLE (F), SPARSE");
+      printTruthTable(outputs);
 
-   /*
-    * Calculates the derivative of the sigmoid function for a given value x
-    *
-    * @param x    the value passed to the derivative of the sigmoid function
-    */
-   private double derivSigmoid(double x)
-   {
-      double val = sigmoid(x);
-      return val * (1.0 - val);
-   }
+      if (exportWeights)
+         writeSparseWeights(saveWeightsFile);
+
+      System.out.println("\nSPARSITY INFO\n-------------------------");
+      System.out.println("Stored weights per layer: " + sparseWeightsString());
+      System.out.printf("Weights memory (bytes): %d -> %d (%.1f%%)%n", originalBytes, sparseBytes, 100.0 * sparseBytes / originalBytes);
+      System.out.println("Mean Error (dense): " + originalError);
+      System.out.println("Mean Error (sparse): " + sparseError);
+      System.out.println("Accuracy drop (mean error increase): " + (sparseError - originalError));
+      reportOutputChange(originalOutputs);
+      System.out.printf("Run time (ms), dense -> sparse: %.3f -> %.3f%n", originalNanos / 1.0e6, sparseNanos / 1.0e6);
+   } // public void sparsifyAndReport() throws IOException
 
    /*
-    * Computes an activation function
-    *
-    * @param x    the value passed to the activation function
+    * Returns the number of stored and dense weights of each sparse layer, separated by spaces
     */
-   private double activationF(double x)
+   private String sparseWeightsString()
    {
-      return sigmoid(x);
-   }
+      String printSparse = "";
+      for (int n = 0; n < noLayers; n++)
+      {
+         printSparse += csrLayers[n].nonZeros() + "/" + csrLayers[n].size() + " ";
+      }
+      return printSparse.trim();
+   } // private String sparseWeightsString()
 
    /*
-    * Computes the derivative of an activation function
-    *
-    * @param x    the value passed to the derivative of activation function
+    * Starts the ForkJoinPool of the parallel modes if THREADS is above 1, and the NeuronTeam if a layer
+    * is split, unless they are already running. Only running and training start them, so quantize, prune,
+    * sparsify and factor stay on the calling thread.
     */
-   private double derivActivationF(double x)
+   private void startWorkers()
    {
-      return derivSigmoid(x);
-   }
+      if (threads > 1 && pool == null)
+         pool = new ForkJoinPool(threads);
 
-   /*
-    * Returns a String with the number of activations in each layer
-    */
-   private String activationString()
-   {
-      String printActivation = "";
-      for (int n = 0; n < noLayers; n++)
+      if (splitLayerString().length() > 0 && team == null)
       {
-         printActivation += noActivations[n] + "-";
+         team = new NeuronTeam(neuronThreads);
+         teamPartials = new double[neuronThreads][Arrays.stream(noActivations).max().getAsInt()];
       }
-      printActivation += noActivations[noLayers];
-      return printActivation;
-   } // private String activationString()
+   } // private void startWorkers()
 
    /*
-    * Displays the values of a truth table given the outputs
-    *
-    * @param fOut    the given outputs to display
+    * Shuts down the ForkJoinPool and the NeuronTeam, if running, once a run or training is done
     */
-   private void printTruthTable(double[][] fOut)
+   private void stopWorkers()
    {
-      if (showInputs)
+      if (pool != null)
       {
-         for (int ii = 0; ii < noCases; ii++)
-         {
-            System.out.print(showInputs(ii));
-            System.out.print("| ");
-            System.out.println(showOutputs(fOut, ii));
-         }
+         pool.shutdown();
+         pool = null;
       }
-      else
+
+      if (team != null)
       {
-         for (int ii = 0; ii < noCases; ii++)
-         {
-            System.out.printf("Case #%d: ", ii);
-            System.out.println(showOutputs(fOut, ii));
-         }
+         team.shutdown();
+         team = null;
       }
-   } // private void printTruthTable(double[][] fOut)
+   } // private void stopWorkers()
 
    /*
-    * Returns the inputs of a truth table given the case index
-    * 
-    * @param ii   the given case index
+    * Runs the network REPORT_TIMING_RUNS times and returns the nanoseconds of the fastest run
     */
-   private String showInputs(int ii)
+   private long timeRunNetwork()
    {
-      String inputs = "";
-      for (int k = 0; k < noActivations[0]; k++)
+      long fastest = Long.MAX_VALUE;
+
+      for (int t = 0; t < REPORT_TIMING_RUNS; t++)
       {
-         inputs += caseIn[ii][k] + "  ";
+         long start = System.nanoTime();
+         runNetwork();
+         fastest = Math.min(fastest, System.nanoTime() - start);
       }
 
-      return inputs;
-   }
+      return fastest;
+   } // private long timeRunNetwork()
 
    /*
-    * Returns the outputs of a truth table given the case index and output array values
-    * 
-    * @param ii      the given case index
-    * @param fOut    the given outputs to display
+    * Returns a copy of the outputs of the last run
     */
-   private String showOutputs(double[][] fOut, int ii)
+   private double[][] copyOutputs()
    {
-      String outputs = "";
-      for (int i = 0; i < noActivations[noLayers]; i++)
+      double[][] copy = new double[noCases][];
+      for (int ii = 0; ii < noCases; ii++)
       {
-         outputs += fOut[ii][i] + "  ";
+         copy[ii] = outputs[ii].clone();
       }
-
-      return outputs;
-   }
+      return copy;
+   } // private double[][] copyOutputs()
 
    /*
-    * Uses a FileWriter to write number of activations in each layer and weights to a user-given file
+    * Prints the largest change between the given outputs and those of the last run, and the number of
+    * cases whose largest output moved to another activation
     *
-    * @param weightsFile     the path of the file to save the weights to
-    * @throws IOException    if there is an error during input or output operations
+    * @param originalOutputs    the outputs to compare against
     */
-   private void writeWeights(String weightsFile) throws IOException
+   private void reportOutputChange(double[][] originalOutputs)
    {
-      FileWriter fw = new FileWriter(weightsFile);
+      double maxChange = 0.0;
+      int changedWinners = 0;
 
-      fw.write(activationString() + "\n");
-   
-      for (int n = 0; n < noLayers; n++)
+      for (int ii = 0; ii < noCases; ii++)
+      {
+         int originalWinner = 0, newWinner = 0;
+         for (int i = 0; i < noActivations[noLayers]; i++)
+         {
+            maxChange = Math.max(maxChange, Math.abs(outputs[ii][i] - originalOutputs[ii][i]));
+            if (originalOutputs[ii][i] > originalOutputs[ii][originalWinner])
+               originalWinner = i;
+            if (outputs[ii][i] > outputs[ii][newWinner])
+               newWinner = i;
+         }
+
+         if (originalWinner != newWinner)
+            changedWinners++;
+      } // for (int ii = 0; ii < noCases; ii++)
+
+      System.out.println("Largest output change: " + maxChange);
+      System.out.println("Cases whose largest output moved: " + changedWinners + " of " + noCases);
+   } // private void reportOutputChange(double[][] originalOutputs)
+
+   /*
+    * Trains the network using steepest descent to minimize the error value and near the target values.
+    * 
+    * Training ends if the maximum number of iterations is reached or the calculated error
+    * is below the error threshold. Frozen layers are run once for every case before the first epoch.
+    *
+    * Each epoch either takes every case in order here or is handed to the EpochScheduler of the mode
+    * chosen by getScheduler. If the scheduler left some outputs stale, such as those of the cases a case
+    * tolerance skipped or those of the cases priority sampling did not draw, every case is run again
+    * before training stops on the error threshold, so the stopping decision uses the current weights.
+    *
+    * @throws IOException    if there is an error during input or output operations
+    */
+   public void trainNetwork() throws IOException
+   {
+      epoch = 0;
+      avgError = Double.MAX_VALUE;
+
+      int skipped = 0;
+      skippedUpdates = 0;
+
+      if (freezeLayers > 0)
+         cacheFrozenActivations();
+
+      EpochScheduler scheduler = getScheduler();
+
+      try
+      {
+         while (epoch < maxIterations && avgError > errorThreshold)
+         {
+            skipped = 0;
+
+            if (scheduler != null)
+            {
+               skipped = scheduler.trainEpoch(epoch);
+            }
+            else
+            {
+               for (int ii = 0; ii < noCases; ii++)
+               {
+                  train(ii, lambda);
+               }
+            }
+
+            skippedUpdates += skipped;
+
+            if ((epoch + 1) % keepAlive == 0)
+            {
+               System.out.print("Iteration #" + (epoch + 1) + " Avg Error: " + avgError);
+               if (caseTolerance > 0.0)
+                  System.out.printf(" Skipped: %.1f%%", 100.0 * skipped / noCases);
+               System.out.println();
+            }
+
+            avgError = meanError();
+            epoch++;
+
+            if (avgError <= errorThreshold && scheduler != null && scheduler.staleOutputs()) // some outputs predate the last weight updates
+            {
+               runNetwork();
+               avgError = meanError();
+            }
+         } // while (epoch < maxIterations && avgError > errorThreshold)
+      } // try
+      finally
+      {
+         if (scheduler != null)
+            scheduler.shutdown();
+      }
+
+      if (unrolled != null)
+         unrolled.store(weights);
+   } // public void trainNetwork() throws IOException
+
+   /*
+    * Returns the scheduler that trains each epoch for the configured PARALLEL_TRAINING, SAMPLING and
+    * CASE_TOLERANCE, or null for the serial trainer, which takes every case in order on the calling
+    * thread. Priority sampling overrides the case tolerance, and setConfigParams allows neither with
+    * parallel training.
+    */
+   private EpochScheduler getScheduler()
+   {
+      if (parallelTraining.equals("sync"))
+         return new SyncTrainer(this, pool, newTrainingSpaces(threads), weights, layerKernels, freezeLayers, noCases, stepCases, lambda);
+      if (parallelTraining.equals("hogwild"))
+         return new HogwildTrainer(this, pool, newTrainingSpaces(threads), weights, noCases, lambda);
+      if (parallelTraining.equals("pipeline"))
+         return new PipelineTrainer(this, stageBounds, newTrainingSpaces(maxStaleness + 1), weights, noCases, lambda);
+      if (sampling.equals("priority"))
+         return new PrioritySampler(this, noCases, priorityExponent, correctionExponent, maxIterations, recheckInterval, lambda, random);
+      if (caseTolerance > 0.0)
+         return new ToleranceScheduler(this, noCases, caseTolerance, recheckInterval, lambda);
+      return null;
+   } // private EpochScheduler getScheduler()
+
+   /*
+    * Allocates the training scratch arrays of count worker threads, one case at a time each
+    *
+    * @param count    the number of workspaces
+    */
+   private Workspace[] newTrainingSpaces(int count)
+   {
+      Workspace[] spaces = new Workspace[count];
+
+      for (int t = 0; t < count; t++)
+      {
+         spaces[t] = new Workspace(noLayers, noActivations, 1);
+         spaces[t].allocateTrainingArrays(noLayers, noActivations);
+      }
+
+      return spaces;
+   } // private Workspace[] newTrainingSpaces(int count)
+
+   /*
+    * Runs every case through the frozen layers and keeps a copy of the activations of layer freezeLayers,
+    * which runTrain then starts from. The cache holds noCases * noActivations[freezeLayers] doubles.
+    */
+   private void cacheFrozenActivations()
+   {
+      double[][] activations = workspace.activations;
+      frozenActivations = new double[noCases][];
+
+      for (int ii = 0; ii < noCases; ii++)
+      {
+         runInputLayer(ii, activations[1], workspace);
+         Activation.apply(activationFunctions[1], activations[1], activations[1], noActivations[1]);
+
+         for (int n = 1; n < freezeLayers; n++)
+         {
+            for (int j = 0; j < noActivations[n + 1]; j++)
+            {
+               activations[n + 1][j] = layerKernels[n].dot(activations[n], weights[n], j * noActivations[n], noActivations[n]);
+            }
+            Activation.apply(activationFunctions[n + 1], activations[n + 1], activations[n + 1], noActivations[n + 1]);
+         }
+
+         frozenActivations[ii] = Arrays.copyOf(activations[freezeLayers], noActivations[freezeLayers]);
+      } // for (int ii = 0; ii < noCases; ii++)
+   } // private void cacheFrozenActivations()
+
+   /*
+    * Runs the network for all the given test cases, either one at a time or in blocks of
+    * batchSize cases when batching is enabled, and across the worker threads when there are any
+    */
+   public void runNetwork()
+   {
+      if (quantized != null)
+      {
+         for (int ii = 0; ii < noCases; ii++)
+         {
+            quantized.run(caseIn[ii], outputs[ii]);
+         }
+      }
+      else if (floatNet != null)
+      {
+         for (int ii = 0; ii < noCases; ii++)
+         {
+            floatNet.run(ii, outputs[ii]);
+         }
+      }
+      else if (pool != null && lowRank == null && conv == null)
+      {
+         runParallel();
+      }
+      else if (unrolled != null)
+      {
+         for (int ii = 0; ii < noCases; ii++)
+         {
+            unrolled.run(caseIn[ii], outputs[ii]);
+         }
+      }
+      else if (batchSize > 1 && lowRank == null && csrLayers == null && conv == null)
+      {
+         for (int ii = 0; ii < noCases; ii += batchSize)
+         {
+            runBatch(ii, Math.min(batchSize, noCases - ii), workspace);
+         }
+      }
+      else
+      {
+         for (int ii = 0; ii < noCases; ii++)
+         {
+            run(ii, workspace);
+         }
+      }
+   } // public void runNetwork()
+
+   /*
+    * Runs all the test cases on the worker threads. The cases are split into TASKS_PER_THREAD contiguous
+    * ranges per thread, rounded to whole batches, so a thread that finishes early can take more work.
+    * Each task runs its range exactly as runNetwork would on one thread, into a Workspace of its own
+    * that is kept for the next run, so the outputs are the same. The factorized and convolution layers keep scratch arrays of their
+    * own and stay on the calling thread.
+    */
+   private void runParallel()
+   {
+      int chunk = (noCases + threads * TASKS_PER_THREAD - 1) / (threads * TASKS_PER_THREAD);
+      chunk = (chunk + batchSize - 1) / batchSize * batchSize;
+      List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+
+      if (taskSpaces == null)
+         taskSpaces = new Workspace[(noCases + chunk - 1) / chunk];
+
+      for (int first = 0; first < noCases; first += chunk)
+      {
+         int start = first;
+         int end = Math.min(first + chunk, noCases);
+         int task = first / chunk;
+
+         tasks.add(() ->
+         {
+            if (taskSpaces[task] == null)
+               taskSpaces[task] = new Workspace(noLayers, noActivations, batchSize);
+
+            Workspace ws = taskSpaces[task];
+            int step = (unrolled == null && batchSize > 1 && csrLayers == null) ? batchSize : 1;
+
+            for (int ii = start; ii < end; ii += step)
+            {
+               if (unrolled != null)
+                  unrolled.run(caseIn[ii], outputs[ii]);
+               else if (step > 1)
+                  runBatch(ii, Math.min(batchSize, end - ii), ws);
+               else
+                  run(ii, ws);
+            }
+
+            return null;
+         });
+      } // for (int first = 0; first < noCases; first += chunk)
+
+      invokeAll(pool, tasks);
+   } // private void runParallel()
+
+   /*
+    * Trains the network for the given case and adjusts the values of the weights based on the learning factor
+    *
+    * @param caseIndex  the given training case to train the network on
+    * @param rate       the learning factor of this step, lambda unless a sampled case is reweighted
+    *
+    */
+   void train(int caseIndex, double rate)
+   {
+      if (floatNet != null)
+      {
+         floatNet.runTrain(caseIndex, caseOut[caseIndex], outputs[caseIndex]);
+         floatNet.updateWeights(rate);
+      }
+      else if (unrolled != null)
+      {
+         unrolled.train(caseIn[caseIndex], caseOut[caseIndex], outputs[caseIndex], rate);
+      }
+      else
+      {
+         runTrain(caseIndex, workspace);
+         updateWeights(caseIndex, rate, workspace, weights);
+      }
+   } // void train(int caseIndex, double rate)
+
+   /*
+    * Runs the given case on the calling thread and sets its outputs, keeping what trainBackward needs
+    * to take the weight update for it, so a scheduler can look at the error before deciding to train
+    *
+    * @param caseIndex  the given training case to run
+    */
+   void trainForward(int caseIndex)
+   {
+      if (floatNet != null)
+         floatNet.runTrain(caseIndex, caseOut[caseIndex], outputs[caseIndex]);
+      else if (unrolled != null)
+         unrolled.run(caseIn[caseIndex], outputs[caseIndex]);
+      else
+         runTrain(caseIndex, workspace);
+   } // void trainForward(int caseIndex)
+
+   /*
+    * Takes the weight update for the case trainForward ran last. The unrolled network cannot stop
+    * between its two passes, so it runs the case once more to train it.
+    *
+    * @param caseIndex  the training case run last by trainForward
+    * @param rate       the learning factor of this step
+    */
+   void trainBackward(int caseIndex, double rate)
+   {
+      if (floatNet != null)
+         floatNet.updateWeights(rate);
+      else if (unrolled != null)
+         unrolled.train(caseIn[caseIndex], caseOut[caseIndex], outputs[caseIndex], rate);
+      else
+         updateWeights(caseIndex, rate, workspace, weights);
+   } // void trainBackward(int caseIndex, double rate)
+
+   /*
+    * Runs the tasks on the threads of an executor and waits for all of them, or runs them one after
+    * another on the calling thread when there is no executor
+    *
+    * @param executor    the threads to run the tasks on, or null
+    * @param tasks       the tasks to run
+    */
+   static void invokeAll(ExecutorService executor, List<Callable<Void>> tasks)
+   {
+      try
+      {
+         if (executor == null)
+         {
+            for (Callable<Void> task : tasks)
+            {
+               task.call();
+            }
+         }
+         else
+         {
+            for (Future<Void> done : executor.invokeAll(tasks))
+            {
+               done.get();
+            }
+         }
+      } // try
+      catch (Exception e)
+      {
+         throw new IllegalStateException("A parallel task failed", e);
+      }
+   } // static void invokeAll(ExecutorService executor, List<Callable<Void>> tasks)
+
+   /*
+    * Returns true if layer n is wide enough to split across the neuron team and the given scratch
+    * arrays belong to the calling thread, which alone drives the team
+    *
+    * @param n     the connectivity layer
+    * @param ws    the scratch arrays of the calling thread
+    */
+   private boolean splitLayer(int n, Workspace ws)
+   {
+      return team != null && splitLayers[n] && ws == workspace;
+   }
+
+   /*
+    * Computes the dot product of x with every row of weights[n] into y, each team member taking a
+    * range of the rows, that is of the output neurons
+    *
+    * @param n    the connectivity layer
+    * @param x    the activations of layer n
+    * @param y    the array to write the noActivations[n + 1] dot products to
+    */
+   private void splitDots(int n, double[] x, double[] y)
+   {
+      double[] layerWeights = weights[n];
+      Kernel kernel = layerKernels[n];
+      int width = noActivations[n];
+
+      team.split(noActivations[n + 1], (member, start, end) ->
+      {
+         for (int j = start; j < end; j++)
+         {
+            y[j] = kernel.dot(x, layerWeights, j * width, width);
+         }
+      });
+   } // private void splitDots(int n, double[] x, double[] y)
+
+   /*
+    * Backpropagates through layer n on the neuron team. Each member first sums capitalOmega for its
+    * range of the layer's inputs, walking every row over just those columns into its own partial array,
+    * which it copies into psi[n]; only after all members are done do the rows take their steps, so
+    * capitalOmega sees the old weights as in updateWeights. psi[n] is left unscaled by the derivative.
+    *
+    * @param n         the connectivity layer
+    * @param rate      the learning factor of this step
+    * @param ws        the scratch arrays of the calling thread
+    * @param target    the buffer of layer n that the steps are added to
+    */
+   private void splitBackward(int n, double rate, Workspace ws, double[] target)
+   {
+      double[] layerWeights = weights[n];
+      double[] psiNext = ws.psi[n + 1];
+      double[] layerPsi = ws.psi[n];
+      Kernel kernel = layerKernels[n];
+      int width = noActivations[n];
+      int rows = noActivations[n + 1];
+
+      team.split(width, (member, start, end) ->
+      {
+         double[] partial = teamPartials[member];
+         Arrays.fill(partial, 0, end - start, 0.0);
+
+         for (int i = 0; i < rows; i++)
+         {
+            kernel.accumulate(psiNext[i], layerWeights, i * width + start, partial, end - start);
+         }
+
+         System.arraycopy(partial, 0, layerPsi, start, end - start);
+      });
+
+      splitUpdate(n, rate, ws.activations[n], psiNext, target);
+   } // private void splitBackward(int n, double rate, Workspace ws, double[] target)
+
+   /*
+    * Takes the steepest descent step for layer n on the neuron team, each member stepping a range of
+    * the rows. The rows are stepped with updateRow, which gives every weight the same value as updateLayer.
+    *
+    * @param n          the connectivity layer
+    * @param rate       the learning factor of this step
+    * @param x          the activations of layer n
+    * @param psiNext    the psi values of layer n + 1
+    * @param target     the buffer of layer n that the steps are added to
+    */
+   private void splitUpdate(int n, double rate, double[] x, double[] psiNext, double[] target)
+   {
+      Kernel kernel = layerKernels[n];
+      int width = noActivations[n];
+
+      team.split(noActivations[n + 1], (member, start, end) ->
+      {
+         for (int i = start; i < end; i++)
+         {
+            kernel.updateRow(rate, x, psiNext[i], target, i * width, width);
+         }
+      });
+   } // private void splitUpdate(int n, double rate, double[] x, double[] psiNext, double[] target)
+   
+   /*
+    * Runs the network by calculating the output values for the given test case
+    *
+    * @param caseIndex  the given test case to run the network on
+    * @param ws         the scratch arrays of the calling thread
+    */
+   private void run(int caseIndex, Workspace ws)
+   {
+      double[][] activations = ws.activations;
+      double[] layerWeights;
+
+      runInputLayer(caseIndex, activations[1], ws);
+      Activation.apply(activationFunctions[1], activations[1], activations[1], noActivations[1]);
+
+      for (int n = 1; n < noLayers; n++)
+      {
+         layerWeights = weights[n];
+
+         if (csrLayers != null)
+         {
+            csrLayers[n].multiply(activations[n], activations[n + 1]);
+         }
+         else if (splitLayer(n, ws))
+         {
+            splitDots(n, activations[n], activations[n + 1]);
+         }
+         else
+         {
+            for (int j = 0; j < noActivations[n + 1]; j++)
+            {
+               activations[n + 1][j] = layerKernels[n].dot(activations[n], layerWeights, j * noActivations[n], noActivations[n]);
+            }
+         }
+         Activation.apply(activationFunctions[n + 1], activations[n + 1], activations[n + 1], noActivations[n + 1]);
+      } // for (int n = 0; n < noLayers; n++)
+
+      for (int i = 0; i < noActivations[noLayers]; i++)
+      {
+         outputs[caseIndex][i] = activations[noLayers][i];
+      }
+   } // private void run(int caseIndex, Workspace ws)
+
+   /*
+    * Computes the dot products of the first connectivity layer for the given case. A convolution layer
+    * first turns the case inputs into the pooled features in activations[0]. A factorized layer
+    * runs its two thinner products on the case inputs and a sparse layer visits only its stored
+    * weights. Otherwise cases with a list of nonzero inputs
+    * only visit those inputs and leave activations[0] untouched; all other cases copy their inputs
+    * into activations[0] and take the dense dot products.
+    *
+    * @param caseIndex      the given case to run the first layer on
+    * @param dotProducts    the array to write the noActivations[1] dot products to
+    * @param ws             the scratch arrays of the calling thread
+    */
+   private void runInputLayer(int caseIndex, double[] dotProducts, Workspace ws)
+   {
+      double[][] activations = ws.activations;
+      int[] nonZero = (nonZeroInputs != null) ? nonZeroInputs[caseIndex] : null;
+      int width = noActivations[0];
+
+      if (conv != null)
+      {
+         conv.forward(layerKernels[0], caseIn[caseIndex], activations[0]);
+
+         if (splitLayer(0, ws))
+         {
+            splitDots(0, activations[0], dotProducts);
+         }
+         else
+         {
+            for (int j = 0; j < noActivations[1]; j++)
+            {
+               dotProducts[j] = layerKernels[0].dot(activations[0], weights[0], j * width, width);
+            }
+         }
+      }
+      else if (lowRank != null)
+      {
+         lowRank.multiply(layerKernels[0], caseIn[caseIndex], dotProducts);
+      }
+      else if (csrLayers != null)
+      {
+         csrLayers[0].multiply(caseIn[caseIndex], dotProducts);
+      }
+      else if (nonZero == null)
+      {
+         System.arraycopy(caseIn[caseIndex], 0, activations[0], 0, width);
+
+         if (splitLayer(0, ws))
+         {
+            splitDots(0, activations[0], dotProducts);
+         }
+         else
+         {
+            for (int j = 0; j < noActivations[1]; j++)
+            {
+               dotProducts[j] = layerKernels[0].dot(activations[0], weights[0], j * width, width);
+            }
+         }
+      }
+      else if (splitLayer(0, ws))
+      {
+         team.split(noActivations[1], (member, start, end) ->
+         {
+            for (int j = start; j < end; j++)
+            {
+               dotProducts[j] = sparseDot(caseIn[caseIndex], nonZero, weights[0], j * width);
+            }
+         });
+      }
+      else
+      {
+         for (int j = 0; j < noActivations[1]; j++)
+         {
+            dotProducts[j] = sparseDot(caseIn[caseIndex], nonZero, weights[0], j * width);
+         }
+      }
+   } // private void runInputLayer(int caseIndex, double[] dotProducts, Workspace ws)
+
+   /*
+    * Runs the network for a block of consecutive test cases, pushing the whole block through
+    * each layer as one matrix-matrix product so that every weight is loaded once per block
+    * instead of once per case. Gives the same outputs as calling run for each case.
+    *
+    * @param firstCase  the index of the first test case in the block
+    * @param count      the number of test cases in the block, at most batchSize
+    * @param ws         the scratch arrays of the calling thread
+    */
+   private void runBatch(int firstCase, int count, Workspace ws)
+   {
+      double[][] batchActivations = ws.batchActivations;
+      int width = noActivations[0];
+
+      for (int b = 0; b < count; b++)
+      {
+         System.arraycopy(caseIn[firstCase + b], 0, batchActivations[0], b * width, width);
+      }
+
+      for (int n = 0; n < noLayers; n++)
+      {
+         multiplyBatch(n, count, ws);
+      }
+
+      width = noActivations[noLayers];
+      for (int b = 0; b < count; b++)
+      {
+         System.arraycopy(batchActivations[noLayers], b * width, outputs[firstCase + b], 0, width);
+      }
+   } // private void runBatch(int firstCase, int count, Workspace ws)
+
+   /*
+    * Computes the activations of layer n + 1 for a block of cases from the activations of layer n.
+    * The inputs are split into tiles of K_TILE so a tile of every case stays in cache while all the
+    * weight rows pass over it, and each step works on a 2x2 register tile of two weight rows
+    * and two cases. Odd rows or cases reuse the previous one and the duplicate result is dropped.
+    * Every dot product is still summed in increasing k, so the result matches run exactly.
+    *
+    * @param n        the connectivity layer to compute
+    * @param count    the number of cases in the block
+    * @param ws       the scratch arrays of the calling thread
+    */
+   private void multiplyBatch(int n, int count, Workspace ws)
+   {
+      double[] in = ws.batchActivations[n];
+      double[] out = ws.batchActivations[n + 1];
+      double[] layerWeights = weights[n];
+      int width = noActivations[n];
+      int height = noActivations[n + 1];
+      int kEnd, row0, row1, in0, in1;
+      double w0, w1, x0, x1;
+      double s00, s01, s10, s11;
+
+      Arrays.fill(out, 0, count * height, 0.0);
+
+      for (int kStart = 0; kStart < width; kStart += K_TILE)
+      {
+         kEnd = Math.min(kStart + K_TILE, width);
+
+         for (int j = 0; j < height; j += 2)
+         {
+            row0 = j * width;
+            row1 = (j + 1 < height) ? row0 + width : row0;
+
+            for (int b = 0; b < count; b += 2)
+            {
+               in0 = b * width;
+               in1 = (b + 1 < count) ? in0 + width : in0;
+
+               s00 = out[b * height + j];
+               s10 = (b + 1 < count) ? out[(b + 1) * height + j] : 0.0;
+               s01 = (j + 1 < height) ? out[b * height + j + 1] : 0.0;
+               s11 = (b + 1 < count && j + 1 < height) ? out[(b + 1) * height + j + 1] : 0.0;
+
+               for (int k = kStart; k < kEnd; k++)
+               {
+                  w0 = layerWeights[row0 + k];
+                  w1 = layerWeights[row1 + k];
+                  x0 = in[in0 + k];
+                  x1 = in[in1 + k];
+                  s00 += x0 * w0;
+                  s01 += x0 * w1;
+                  s10 += x1 * w0;
+                  s11 += x1 * w1;
+               }
+
+               out[b * height + j] = s00;
+               if (j + 1 < height)
+                  out[b * height + j + 1] = s01;
+               if (b + 1 < count)
+                  out[(b + 1) * height + j] = s10;
+               if (b + 1 < count && j + 1 < height)
+                  out[(b + 1) * height + j + 1] = s11;
+            } // for (int b = 0; b < count; b += 2)
+         } // for (int j = 0; j < height; j += 2)
+      } // for (int kStart = 0; kStart < width; kStart += K_TILE)
+
+      if (activationFunctions[n + 1] == Activation.SOFTMAX)
+      {
+         for (int b = 0; b < count; b++)
+         {
+            Activation.softmax(out, out, b * height, height);
+         }
+      }
+      else
+      {
+         Activation.apply(activationFunctions[n + 1], out, out, count * height);
+      }
+   } // private void multiplyBatch(int n, int count, Workspace ws)
+
+   /*
+    * Runs the network by calculating the output values for the given test case
+    * and stores the dot products in the thetas array. With frozen layers the case
+    * starts from its cached activations of layer freezeLayers.
+    *
+    * @param caseIndex  the given test case to run the network on
+    * @param ws         the scratch arrays of the calling thread
+    */
+   void runTrain(int caseIndex, Workspace ws)
+   {
+      runTrain(caseIndex, ws, freezeLayers, noLayers);
+   }
+
+   /*
+    * Runs the given case through the connectivity layers first to last - 1 only, as runTrain does, for
+    * a pipeline stage. The activations of layer first must already be in ws unless first is the lowest
+    * trained layer, and psi[noLayers] is only set when last is noLayers.
+    *
+    * @param caseIndex  the given test case to run the network on
+    * @param ws         the scratch arrays of the calling thread
+    * @param first      the lowest connectivity layer to run
+    * @param last       one more than the highest connectivity layer to run
+    */
+   void runTrain(int caseIndex, Workspace ws, int first, int last)
+   {
+      double[][] activations = ws.activations;
+      double[][] thetas = ws.thetas;
+      double[][] psi = ws.psi;
+      double[] layerWeights;
+      int firstLayer = first;
+
+      if (first == freezeLayers && frozenActivations != null)
+      {
+         System.arraycopy(frozenActivations[caseIndex], 0, activations[freezeLayers], 0, noActivations[freezeLayers]);
+      }
+      else if (first == 0)
+      {
+         runInputLayer(caseIndex, thetas[1], ws);
+         Activation.apply(activationFunctions[1], thetas[1], activations[1], noActivations[1]);
+         firstLayer = 1;
+      }
+
+      for (int n = firstLayer; n < last; n++)
+      {
+         layerWeights = weights[n];
+
+         if (splitLayer(n, ws))
+         {
+            splitDots(n, activations[n], thetas[n + 1]);
+         }
+         else
+         {
+            for (int j = 0; j < noActivations[n + 1]; j++)
+            {
+               thetas[n + 1][j] = layerKernels[n].dot(activations[n], layerWeights, j * noActivations[n], noActivations[n]);
+            }
+         }
+         Activation.apply(activationFunctions[n + 1], thetas[n + 1], activations[n + 1], noActivations[n + 1]);
+      } // for (int n = firstLayer; n < last; n++)
+
+      if (last < noLayers)
+         return;
+
+      for (int i = 0; i < noActivations[noLayers]; i++) // loop for loading the outputs and calculating omega values
+      {
+         outputs[caseIndex][i] = activations[noLayers][i]; // loading activations to output (F) array
+         psi[noLayers][i] = caseOut[caseIndex][i] - outputs[caseIndex][i];
+      }
+      Activation.scaleByDerivative(activationFunctions[noLayers], activations[noLayers], psi[noLayers], noActivations[noLayers]);
+
+   } // void runTrain(int caseIndex, Workspace ws, int first, int last)
+
+   /*
+    * Updates the weights based on updated activation node values and the partial derivative
+    * of the error. Each layer is walked one weights row at a time, in memory order: the row first
+    * adds its share to the capitalOmega sums, which are kept in psi[n] until the row loop is done,
+    * and only then takes its steepest descent step, so capitalOmega always sees the old weights.
+    * Frozen layers are skipped, and the lowest trained layer only takes its step. The steps go to target,
+    * which is weights itself or, for synchronous training, a gradient buffer that leaves weights untouched.
+    *
+    * @param caseIndex  the given training case to update the weights of the network for
+    * @param rate       the learning factor of this step
+    * @param ws         the scratch arrays of the calling thread
+    * @param target     the buffers, shaped like weights, that the steps are added to
+    *
+    */
+   void updateWeights(int caseIndex, double rate, Workspace ws, double[][] target)
+   {
+      updateWeights(caseIndex, rate, ws, target, freezeLayers, noLayers);
+   }
+
+   /*
+    * Updates the weights of the connectivity layers first to last - 1 only, as updateWeights does, for a
+    * pipeline stage. psi[last] must already be in ws, and unless first is the lowest trained layer
+    * psi[first] is left for the stage below.
+    *
+    * @param caseIndex  the given training case to update the weights of the network for
+    * @param rate       the learning factor of this step
+    * @param ws         the scratch arrays of the calling thread
+    * @param target     the buffers, shaped like weights, that the steps are added to
+    * @param first      the lowest connectivity layer to update
+    * @param last       one more than the highest connectivity layer to update
+    */
+   void updateWeights(int caseIndex, double rate, Workspace ws, double[][] target, int first, int last)
+   {
+      double[][] activations = ws.activations;
+      double[][] psi = ws.psi;
+      double[] layerWeights;
+      int width;
+
+      for (int n = last - 1; n >= Math.max(first, 1); n--)
+      {
+         layerWeights = weights[n];
+         width = noActivations[n];
+
+         if (n == freezeLayers) // nothing below a frozen layer needs psi[n]
+         {
+            if (splitLayer(n, ws))
+               splitUpdate(n, rate, activations[n], psi[n + 1], target[n]);
+            else
+               layerKernels[n].updateLayer(rate, activations[n], psi[n + 1], target[n], noActivations[n + 1], width);
+            return;
+         }
+
+         if (splitLayer(n, ws))
+         {
+            splitBackward(n, rate, ws, target[n]);
+         }
+         else
+         {
+            Arrays.fill(psi[n], 0.0);
+
+            for (int i = 0; i < noActivations[n + 1]; i++)
+            {
+               layerKernels[n].accumulate(psi[n + 1][i], layerWeights, i * width, psi[n], width);
+               layerKernels[n].updateRow(rate, activations[n], psi[n + 1][i], target[n], i * width, width);
+            }
+         }
+
+         Activation.scaleByDerivative(activationFunctions[n], activations[n], psi[n], width);
+      } // for (int n = last - 1; n >= Math.max(first, 1); n--)
+
+      if (first > 0)
+         return;
+
+      layerWeights = weights[0];
+      width = noActivations[0];
+      int[] nonZero = (nonZeroInputs != null) ? nonZeroInputs[caseIndex] : null;
+
+      if (conv != null && splitLayer(0, ws))
+      {
+         splitBackward(0, rate, ws, target[0]);
+         conv.backward(layerKernels[0], rate, psi[0]);
+      }
+      else if (conv != null) // psi[0] of the pooled features is taken before the first layer steps
+      {
+         Arrays.fill(psi[0], 0.0);
+         for (int i = 0; i < noActivations[1]; i++)
+         {
+            layerKernels[0].accumulate(psi[1][i], layerWeights, i * width, psi[0], width);
+         }
+
+         layerKernels[0].updateLayer(rate, activations[0], psi[1], target[0], noActivations[1], width);
+         conv.backward(layerKernels[0], rate, psi[0]);
+      }
+      else if (nonZero == null && splitLayer(0, ws))
+      {
+         splitUpdate(0, rate, activations[0], psi[1], target[0]);
+      }
+      else if (nonZero == null) // the first layer needs no psi[0], only the weight step, tiled for wide input layers
+      {
+         layerKernels[0].updateLayer(rate, activations[0], psi[1], target[0], noActivations[1], width);
+      }
+      else if (splitLayer(0, ws))
+      {
+         team.split(noActivations[1], (member, start, end) ->
+         {
+            for (int k = start; k < end; k++)
+            {
+               sparseUpdateRow(rate, caseIn[caseIndex], nonZero, psi[1][k], target[0], k * noActivations[0]);
+            }
+         });
+      }
+      else
+      {
+         for (int k = 0; k < noActivations[1]; k++)
+         {
+            sparseUpdateRow(rate, caseIn[caseIndex], nonZero, psi[1][k], target[0], k * width);
+         }
+      }
+
+   } // void updateWeights(int caseIndex, double rate, Workspace ws, double[][] target, int first, int last)
+
+   /*
+    * Returns the dot product of the nonzero entries of x with the matching weights of one row.
+    * The skipped terms are all zero, so the sum matches the dense dot product.
+    *
+    * @param x          the inputs of a case
+    * @param nonZero    the indices of the nonzero entries of x, in increasing order
+    * @param w          the flat weights buffer of the first layer
+    * @param wOffset    the index in w of the first weight of the row
+    */
+   private double sparseDot(double[] x, int[] nonZero, double[] w, int wOffset)
+   {
+      double sum = 0.0;
+
+      for (int m : nonZero)
+      {
+         sum += x[m] * w[wOffset + m];
+      }
+
+      return sum;
+   } // private double sparseDot(double[] x, int[] nonZero, double[] w, int wOffset)
+
+   /*
+    * Takes the steepest descent step for one row of first-layer weights, visiting only the weights
+    * of nonzero inputs since every other weight would change by zero
+    *
+    * @param rate       the learning factor of this step
+    * @param x          the inputs of a case
+    * @param nonZero    the indices of the nonzero entries of x, in increasing order
+    * @param psi        the psi value of the activation the row feeds into
+    * @param w          the flat weights buffer of the first layer
+    * @param wOffset    the index in w of the first weight of the row
+    */
+   private void sparseUpdateRow(double rate, double[] x, int[] nonZero, double psi, double[] w, int wOffset)
+   {
+      for (int m : nonZero)
+      {
+         w[wOffset + m] += rate * x[m] * psi;
+      }
+   }
+
+   /*
+    * Lists the nonzero inputs of every case once, after the cases are loaded. Cases with more than
+    * half of their inputs nonzero are left dense, since the indexed loops only pay off below that.
+    */
+   private void findNonZeroInputs()
+   {
+      int[] found = new int[noActivations[0]];
+      int count;
+      long total = 0;
+
+      nonZeroInputs = new int[noCases][];
+
+      for (int ii = 0; ii < noCases; ii++)
+      {
+         count = 0;
+
+         for (int m = 0; m < noActivations[0]; m++)
+         {
+            if (caseIn[ii][m] != 0.0)
+            {
+               found[count] = m;
+               count++;
+            }
+         }
+
+         total += count;
+         if (count <= noActivations[0] / 2)
+            nonZeroInputs[ii] = Arrays.copyOf(found, count);
+      } // for (int ii = 0; ii < noCases; ii++)
+
+      inputDensity = total / ((double) noCases * noActivations[0]);
+   } // private void findNonZeroInputs()
+
+   /*
+    * Returns the position of the weight connecting activation k of layer n to activation j of
+    * layer n + 1 within the flat buffer weights[n]. Each layer is stored transposed, [j][k], so
+    * that the dot product for activation j reads one contiguous row.
+    *
+    * @param n    the connectivity layer of the weight
+    * @param k    the index of the activation in layer n
+    * @param j    the index of the activation in layer n + 1
+    */
+   private int weightIndex(int n, int k, int j)
+   {
+      return j * noActivations[n] + k;
+   }
+
+   /*
+    * Returns the weight connecting activation k of layer n to activation j of layer n + 1
+    * from whichever precision holds the weights
+    *
+    * @param n    the connectivity layer of the weight
+    * @param k    the index of the activation in layer n
+    * @param j    the index of the activation in layer n + 1
+    */
+   private double getWeight(int n, int k, int j)
+   {
+      return (floatNet != null) ? floatNet.getWeight(n, weightIndex(n, k, j)) : weights[n][weightIndex(n, k, j)];
+   }
+
+   /*
+    * Sets the weight connecting activation k of layer n to activation j of layer n + 1
+    * in whichever precision holds the weights
+    *
+    * @param n        the connectivity layer of the weight
+    * @param k        the index of the activation in layer n
+    * @param j        the index of the activation in layer n + 1
+    * @param value    the new value of the weight
+    */
+   private void setWeight(int n, int k, int j, double value)
+   {
+      if (floatNet != null)
+         floatNet.setWeight(n, weightIndex(n, k, j), value);
+      else
+         weights[n][weightIndex(n, k, j)] = value;
+   }
+
+   /*
+    * Returns input k of the given case from whichever precision holds the inputs
+    *
+    * @param caseIndex  the index of the case
+    * @param k          the index of the input
+    */
+   private double getInput(int caseIndex, int k)
+   {
+      return (floatNet != null) ? floatNet.getInput(caseIndex, k) : caseIn[caseIndex][k];
+   }
+
+   /*
+    * Sets input k of the given case in whichever precision holds the inputs
+    *
+    * @param caseIndex  the index of the case
+    * @param k          the index of the input
+    * @param value      the value of the input
+    */
+   private void setInput(int caseIndex, int k, double value)
+   {
+      if (floatNet != null)
+         floatNet.setInput(caseIndex, k, value);
+      else
+         caseIn[caseIndex][k] = value;
+   }
+
+   /*
+    * Generates a random value for a weight within the given range
+    * 
+    * @param min  the lower end of the range within which weights are randomized
+    * @param max  the upper end of the range within which weights are randomized
+    */
+   private double randWeights(double min, double max)
+   {
+      return random.nextDouble() * (max - min) + min;
+   }
+
+   /*
+    * Calculates the average error value based on the sum of error values returned from running all test cases
+    */
+   public double meanError()
+   {
+      double totalError = 0.0;
+
+      for (int ii = 0; ii < noCases; ii++)
+      {
+         totalError += errorFunction(ii);
+      }
+
+      return totalError / (double) noCases;
+   } // public double meanError()
+
+   /*
+    * Computes the error for one given case using the formula 1/2(F - T)^2, or the cross-entropy
+    * -sum T log F when the output layer is softmax
+    *
+    * @param caseIndex  the given training case to minimize the error function for
+    */
+   double errorFunction(int caseIndex)
+   {
+      if (activationFunctions[noLayers] == Activation.SOFTMAX)
+         return Activation.crossEntropy(caseOut[caseIndex], outputs[caseIndex], noActivations[noLayers]);
+
+      double error = 0.0;
+
+      for (int i = 0; i < noActivations[noLayers]; i++)
+      {
+         error += (caseOut[caseIndex][i] - outputs[caseIndex][i]) * (caseOut[caseIndex][i] - outputs[caseIndex][i]);
+      }
+
+      return error / 2.0;
+
+   } // double errorFunction(int caseIndex)
+
+   /*
+    * Returns a String with the number of activations in each layer
+    */
+   private String activationString()
+   {
+      String printActivation = "";
+      for (int n = 0; n < noLayers; n++)
+      {
+         printActivation += noActivations[n] + "-";
+      }
+      printActivation += noActivations[noLayers];
+      return printActivation;
+   } // private String activationString()
+
+   /*
+    * Returns a String with the name of the activation function of each layer
+    */
+   private String functionString()
+   {
+      String printFunction = "";
+      for (int n = 1; n <= noLayers; n++)
+      {
+         printFunction += Activation.name(activationFunctions[n]) + " ";
+      }
+      return printFunction.trim();
+   } // private String functionString()
+
+   /*
+    * Returns the name of the kernel of each connectivity layer, separated by spaces
+    */
+   private String kernelString()
+   {
+      String printKernel = "";
+      for (int n = 0; n < noLayers; n++)
+      {
+         printKernel += layerKernels[n].name() + " ";
+      }
+      return printKernel.trim();
+   } // private String kernelString()
+
+   /*
+    * Returns the indices of the connectivity layers split across the neuron team, e.g. "0 2"
+    */
+   private String splitLayerString()
+   {
+      String layers = "";
+
+      for (int n = 0; n < noLayers; n++)
+      {
+         if (splitLayers[n])
+            layers += (layers.length() > 0 ? " " : "") + n;
+      }
+
+      return layers;
+   } // private String splitLayerString()
+
+   /*
+    * Returns the connectivity layers of each pipeline stage, e.g. "0 | 1 2"
+    */
+   private String stageString()
+   {
+      String stages = "";
+
+      for (int s = 0; s < pipelineStages; s++)
+      {
+         stages += (s > 0 ? " |" : "");
+         for (int n = stageBounds[s]; n < stageBounds[s + 1]; n++)
+         {
+            stages += (stages.length() > 0 ? " " : "") + n;
+         }
+      }
+
+      return stages;
+   } // private String stageString()
+
+   /*
+    * Displays the values of a truth table given the outputs
+    *
+    * @param fOut    the given outputs to display
+    */
+   private void printTruthTable(double[][] fOut)
+   {
+      if (showInputs)
+      {
+         for (int ii = 0; ii < noCases; ii++)
+         {
+            System.out.print(showInputs(ii));
+            System.out.print("| ");
+            System.out.println(showOutputs(fOut, ii));
+         }
+      }
+      else
+      {
+         for (int ii = 0; ii < noCases; ii++)
+         {
+            System.out.printf("Case #%d: ", ii);
+            System.out.println(showOutputs(fOut, ii));
+         }
+      }
+   } // private void printTruthTable(double[][] fOut)
+
+   /*
+    * Returns the inputs of a truth table given the case index
+    * 
+    * @param ii   the given case index
+    */
+   private String showInputs(int ii)
+   {
+      String inputs = "";
+      for (int k = 0; k < noInputs; k++)
+      {
+         inputs += getInput(ii, k) + "  ";
+      }
+
+      return inputs;
+   }
+
+   /*
+    * Returns the outputs of a truth table given the case index and output array values
+    * 
+    * @param ii      the given case index
+    * @param fOut    the given outputs to display
+    */
+   private String showOutputs(double[][] fOut, int ii)
+   {
+      String outputs = "";
+      for (int i = 0; i < noActivations[noLayers]; i++)
+      {
+         outputs += fOut[ii][i] + "  ";
+      }
+
+      return outputs;
+   }
+
+   /*
+    * Uses a FileWriter to write number of activations in each layer and weights to a user-given file.
+    * A factorized first layer is written as a "RANK r" line followed by its two factors in the same
+    * input-major order as a regular layer, V (width x r) and then U (r x noActivations[1]).
+    *
+    * @param weightsFile     the path of the file to save the weights to
+    * @throws IOException    if there is an error during input or output operations
+    */
+   private void writeWeights(String weightsFile) throws IOException
+   {
+      FileWriter fw = new FileWriter(weightsFile);
+      int firstLayer = 0;
+
+      fw.write(activationString() + "\n");
+
+      if (lowRank != null)
+      {
+         fw.write("RANK " + lowRank.getRank() + "\n");
+
+         for (int k = 0; k < noActivations[0]; k++)
+         {
+            for (int r = 0; r < lowRank.getRank(); r++)
+            {
+               fw.write(Double.toString(lowRank.getInputFactor(r, k)) + "\n");
+            }
+         }
+
+         for (int r = 0; r < lowRank.getRank(); r++)
+         {
+            for (int j = 0; j < noActivations[1]; j++)
+            {
+               fw.write(Double.toString(lowRank.getOutputFactor(j, r)) + "\n");
+            }
+         }
+
+         firstLayer = 1;
+      } // if (lowRank != null)
+   
+      for (int n = firstLayer; n < noLayers; n++)
       {
          for (int k = 0; k < noActivations[n]; k++)
          {
             for (int j = 0; j < noActivations[n + 1]; j++)
             {
-               fw.write(Double.toString(weights[n][k][j]) + "\n");
+               fw.write(Double.toString(getWeight(n, k, j)) + "\n");
             }
          }
       }
@@ -681,6 +2241,73 @@ public class Perceptron
       fw.close();
    } // private void writeWeights()
 
+   /*
+    * Writes the int8 weights to a user-given file: the usual activations line, an "INT8" line, then for
+    * each layer the scales of its noActivations[n + 1] rows followed by its quantized weights as integers
+    * in the same input-major order as writeWeights
+    *
+    * @param weightsFile     the path of the file to save the weights to
+    * @throws IOException    if there is an error during input or output operations
+    */
+   private void writeQuantizedWeights(String weightsFile) throws IOException
+   {
+      FileWriter fw = new FileWriter(weightsFile);
+
+      fw.write(activationString() + "\n");
+      fw.write("INT8\n");
+
+      for (int n = 0; n < noLayers; n++)
+      {
+         for (int j = 0; j < noActivations[n + 1]; j++)
+         {
+            fw.write(Double.toString(quantized.getScale(n, j)) + "\n");
+         }
+
+         for (int k = 0; k < noActivations[n]; k++)
+         {
+            for (int j = 0; j < noActivations[n + 1]; j++)
+            {
+               fw.write(quantized.getWeight(n, weightIndex(n, k, j)) + "\n");
+            }
+         }
+      } // for (int n = 0; n < noLayers; n++)
+
+      fw.close();
+   } // private void writeQuantizedWeights(String weightsFile) throws IOException
+
+   /*
+    * Writes the sparse weights to a user-given file: the usual activations line, a "CSR" line, then for
+    * each layer the number of weights it stores and, for each of its rows, the number of weights the row
+    * stores followed by one "k value" line per weight, k being the index of the activation the weight
+    * comes from
+    *
+    * @param weightsFile     the path of the file to save the weights to
+    * @throws IOException    if there is an error during input or output operations
+    */
+   private void writeSparseWeights(String weightsFile) throws IOException
+   {
+      FileWriter fw = new FileWriter(weightsFile);
+
+      fw.write(activationString() + "\n");
+      fw.write("CSR\n");
+
+      for (int n = 0; n < noLayers; n++)
+      {
+         fw.write(csrLayers[n].nonZeros() + "\n");
+
+         for (int j = 0; j < noActivations[n + 1]; j++)
+         {
+            fw.write(csrLayers[n].rowLength(j) + "\n");
+            for (int p = 0; p < csrLayers[n].rowLength(j); p++)
+            {
+               fw.write(csrLayers[n].column(j, p) + " " + csrLayers[n].value(j, p) + "\n");
+            }
+         }
+      } // for (int n = 0; n < noLayers; n++)
+
+      fw.close();
+   } // private void writeSparseWeights(String weightsFile) throws IOException
+
 
    /*
     * Fills the weights array with values of weights loaded from a file.
@@ -690,25 +2317,198 @@ public class Perceptron
    private void loadWeightsFromFile() throws FileNotFoundException
    {
       Scanner scan = new Scanner(new File(weightsFile));
+      int firstLayer = 0;
 
       if (!scan.nextLine().equals(activationString()))
       {
          throw new FileNotFoundException("The specified weights file to load from does not match the network configuration.");
       }
 
-      for (int n = 0; n < noLayers; n++)
+      if (quantized != null || scan.hasNext("INT8"))
+      {
+         loadQuantizedWeights(scan);
+         return;
+      }
+
+      if (scan.hasNext("CSR"))
+      {
+         if (!trainOrRun.equals("run") || floatNet != null)
+            throw new IllegalArgumentException("Sparse weights can only be run, in double precision");
+
+         loadSparseWeights(scan);
+         return;
+      }
+
+      if (scan.hasNext("RANK")) // a factorized first layer, see writeWeights
+      {
+         if (!trainOrRun.equals("run") || floatNet != null)
+            throw new IllegalArgumentException("Factorized weights can only be run, in double precision");
+
+         scan.next();
+         lowRank = new LowRankLayer(noActivations[1], noActivations[0], scan.nextInt());
+
+         for (int k = 0; k < noActivations[0]; k++)
+         {
+            for (int r = 0; r < lowRank.getRank(); r++)
+            {
+               lowRank.setInputFactor(r, k, scan.nextDouble());
+            }
+         }
+
+         for (int r = 0; r < lowRank.getRank(); r++)
+         {
+            for (int j = 0; j < noActivations[1]; j++)
+            {
+               lowRank.setOutputFactor(j, r, scan.nextDouble());
+            }
+         }
+
+         weights[0] = null; // the factors replace the full first layer
+         firstLayer = 1;
+      } // if (scan.hasNext("RANK"))
+
+      for (int n = firstLayer; n < noLayers; n++)
       {
          for (int k = 0; k < noActivations[n]; k++)
          {
             for (int j = 0; j < noActivations[n + 1]; j++)
             {
-               weights[n][k][j] = scan.nextDouble();
+               setWeight(n, k, j, scan.nextDouble());
             }
          }
       } // for (int n = 0; n < noLayers; n++)
 
+      if (conv != null)
+         loadConvWeights(convLoadWeightsFile);
+
    } // private void loadWeightsFromFile() throws FileNotFoundException
 
+   /*
+    * Fills the int8 weights and scales from a file written by writeQuantizedWeights. The activations
+    * line has already been read.
+    *
+    * @param scan    the Scanner reading the weights file
+    * @throws IllegalArgumentException    if the file and TRAIN_OR_RUN do not agree on int8 weights
+    */
+   private void loadQuantizedWeights(Scanner scan)
+   {
+      if (quantized == null)
+         throw new IllegalArgumentException("The specified weights file holds int8 weights; run it with TRAIN_OR_RUN = runint8.");
+      if (!scan.hasNext("INT8"))
+         throw new IllegalArgumentException("The specified weights file does not hold int8 weights; create one with TRAIN_OR_RUN = quantize.");
+
+      scan.next();
+
+      for (int n = 0; n < noLayers; n++)
+      {
+         for (int j = 0; j < noActivations[n + 1]; j++)
+         {
+            quantized.setScale(n, j, scan.nextDouble());
+         }
+
+         for (int k = 0; k < noActivations[n]; k++)
+         {
+            for (int j = 0; j < noActivations[n + 1]; j++)
+            {
+               quantized.setWeight(n, weightIndex(n, k, j), scan.nextInt());
+            }
+         }
+      } // for (int n = 0; n < noLayers; n++)
+   } // private void loadQuantizedWeights(Scanner scan)
+
+   /*
+    * Fills the sparse layers from a file written by writeSparseWeights and releases the dense weights.
+    * The activations line has already been read. Each layer's count of stored weights comes first, so
+    * the weights go straight into a CsrLayer of that capacity.
+    *
+    * @param scan    the Scanner reading the weights file
+    */
+   private void loadSparseWeights(Scanner scan)
+   {
+      scan.next();
+      csrLayers = new CsrLayer[noLayers];
+
+      for (int n = 0; n < noLayers; n++)
+      {
+         csrLayers[n] = new CsrLayer(noActivations[n + 1], noActivations[n], scan.nextInt());
+
+         for (int j = 0; j < noActivations[n + 1]; j++)
+         {
+            int length = scan.nextInt();
+            for (int p = 0; p < length; p++)
+            {
+               csrLayers[n].append(scan.nextInt(), scan.nextDouble());
+            }
+            csrLayers[n].endRow();
+         }
+
+         weights[n] = null; // the sparse layer replaces the dense one
+      } // for (int n = 0; n < noLayers; n++)
+   } // private void loadSparseWeights(Scanner scan)
+
+   /*
+    * Writes the filter weights of the convolution layer to a user-given file: its shape line, then one
+    * weight per line, filter by filter
+    *
+    * @param convWeightsFile    the path of the file to save the filter weights to
+    * @throws IOException       if there is an error during input or output operations
+    */
+   private void writeConvWeights(String convWeightsFile) throws IOException
+   {
+      FileWriter fw = new FileWriter(convWeightsFile);
+
+      fw.write(conv.shapeString() + "\n");
+      for (int index = 0; index < conv.weightCount(); index++)
+      {
+         fw.write(Double.toString(conv.getWeight(index)) + "\n");
+      }
+
+      fw.close();
+   } // private void writeConvWeights(String convWeightsFile) throws IOException
+
+   /*
+    * Fills the filter weights of the convolution layer from a file written by writeConvWeights
+    *
+    * @param convWeightsFile           the path of the file to load the filter weights from
+    * @throws FileNotFoundException    if the file is missing or holds a differently shaped layer
+    */
+   private void loadConvWeights(String convWeightsFile) throws FileNotFoundException
+   {
+      Scanner scan = new Scanner(new File(convWeightsFile));
+
+      if (!scan.nextLine().equals(conv.shapeString()))
+      {
+         throw new FileNotFoundException("The specified convolution weights file does not match the CONV configuration.");
+      }
+
+      for (int index = 0; index < conv.weightCount(); index++)
+      {
+         conv.setWeight(index, scan.nextDouble());
+      }
+   } // private void loadConvWeights(String convWeightsFile) throws FileNotFoundException
+
+   /*
+    * Returns the convolution layer described by the CONV keys, or null when CONV_CHANNELS is 0
+    *
+    * @param prop    the loaded configuration file
+    */
+   private ConvLayer getConvLayer(Properties prop)
+   {
+      int channels = Integer.valueOf(prop.getProperty("CONV_CHANNELS", "0"));
+      if (channels <= 0)
+         return null;
+
+      String[] shape = prop.getProperty("CONV_INPUT", "100 100 1").trim().split("\\s+");
+      int function = Activation.parse(prop.getProperty("CONV_ACTIVATION", "relu"), tableSigmoid);
+
+      if (function == Activation.SOFTMAX)
+         throw new IllegalArgumentException("CONV_ACTIVATION cannot be softmax");
+
+      return new ConvLayer(Integer.valueOf(shape[0]), Integer.valueOf(shape[1]), (shape.length > 2) ? Integer.valueOf(shape[2]) : 1,
+                           channels, Integer.valueOf(prop.getProperty("CONV_KERNEL", "5")), Integer.valueOf(prop.getProperty("CONV_STRIDE", "2")),
+                           Integer.valueOf(prop.getProperty("POOL_SIZE", "4")), prop.getProperty("POOL", "max").equals("max"), function);
+   } // private ConvLayer getConvLayer(Properties prop)
+
    /*
     * Fills the weights array with values of weights randomized between a given 
     * range of weight values.
@@ -721,11 +2521,19 @@ public class Perceptron
          {
             for (int j = 0; j < noActivations[n + 1]; j++)
             {
-               weights[n][k][j] = randWeights(minWeights, maxWeights);
+               setWeight(n, k, j, randWeights(minWeights, maxWeights));
             }
          }
       } // for (int n = 0; n < noLayers; n++)
 
+      if (conv != null)
+      {
+         for (int index = 0; index < conv.weightCount(); index++)
+         {
+            conv.setWeight(index, randWeights(minWeights, maxWeights));
+         }
+      }
+
    } // private void randomizeWeights()
 
    /*
@@ -747,6 +2555,59 @@ public class Perceptron
        return configFile;
     } // private String getConfigFile(String[] args)
  
+   /*
+    * Returns the Activation function of each activation layer. The configuration String lists one
+    * function per connectivity layer; when it is empty every layer uses the sigmoid function.
+    *
+    * @param functionString    the names of the functions separated by spaces, e.g. "relu relu sigmoid"
+    * @param noLayers          number of layers of the network
+    */
+   private int[] getActivationFunctions(String functionString, int noLayers)
+   {
+      String[] names = functionString.trim().split("\\s+");
+      int[] functions = new int[noLayers + 1];
+
+      if (functionString.trim().length() > 0 && names.length != noLayers)
+      {
+         throw new IllegalArgumentException("ACTIVATIONS must name one function for each of the " + noLayers + " layers");
+      }
+
+      for (int n = 1; n <= noLayers; n++)
+      {
+         functions[n] = Activation.parse(functionString.trim().length() > 0 ? names[n - 1] : "sigmoid", tableSigmoid);
+
+         if (functions[n] == Activation.SOFTMAX && n < noLayers)
+            throw new IllegalArgumentException("ACTIVATIONS may only use softmax for the output layer");
+      }
+
+      return functions;
+   } // private int[] getActivationFunctions(String functionString, int noLayers)
+
+   /*
+    * Returns the fraction of the weights to drop in each connectivity layer. The configuration String
+    * either holds one fraction for every layer or one fraction per connectivity layer.
+    *
+    * @param sparsityString    the fractions separated by spaces, e.g. "0.9" or "0.9 0 0"
+    * @param noLayers          number of layers of the network
+    */
+   private double[] getLayerSparsity(String sparsityString, int noLayers)
+   {
+      String[] fractions = sparsityString.trim().split("\\s+");
+      double[] sparsities = new double[noLayers];
+
+      if (fractions.length != 1 && fractions.length != noLayers)
+      {
+         throw new IllegalArgumentException("SPARSITY must hold one fraction or one for each of the " + noLayers + " layers");
+      }
+
+      for (int n = 0; n < noLayers; n++)
+      {
+         sparsities[n] = Double.valueOf(fractions[(fractions.length == 1) ? 0 : n]);
+      }
+
+      return sparsities;
+   } // private double[] getLayerSparsity(String sparsityString, int noLayers)
+
    /*
     * Returns the number of activations in each layer as an integer array
     *
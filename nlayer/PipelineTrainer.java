@@ -0,0 +1,247 @@
+import java.util.*;
+import java.util.concurrent.*;
+
+/*
+ * Trains each epoch through a pipeline across the layers. The trained layers are cut into PIPELINE_STAGES
+ * groups of about equal weight counts, each run by a thread of its own. A case passes up the stages
+ * through their bounded inboxes on the forward pass and back down on the backward pass, each stage
+ * stepping its own layers, so the lower stages can start the next cases meanwhile. At most
+ * MAX_STALENESS + 1 cases are in flight, one per slot, so a case runs forward on weights missing the
+ * steps of at most MAX_STALENESS earlier cases; with 0 the pipeline trains exactly as the serial trainer
+ * does.
+ *
+ * The stage threads are started by the constructor and stopped by shutdown.
+ *
+ * public PipelineTrainer(Perceptron net, int[] stageBounds, Workspace[] slots, double[][] weights,
+ *                        int noCases, double lambda)
+ * public int trainEpoch(int epoch)
+ * private void runStage(int stage) throws InterruptedException
+ * private void sendToStage(int stage, int slot, boolean backward) throws InterruptedException
+ * public boolean staleOutputs()
+ * public void shutdown()
+ * public static int[] getStageBounds(int stages, int freezeLayers, int noLayers, int[] noActivations)
+ */
+public class PipelineTrainer implements EpochScheduler
+{
+   private Perceptron net;
+   private int[] stageBounds; // stage s trains the connectivity layers stageBounds[s] to stageBounds[s + 1] - 1
+   private int stages;
+   private Workspace[] slots; // the scratch arrays of each slot, that is of each case in flight
+   private double[][] weights;
+   private int noCases;
+   private double lambda;
+   private ExecutorService stagePool; // one thread per stage
+   private List<BlockingQueue<Integer>> stageInboxes; // the slots waiting at each stage
+   private int[] slotCases; // the case each slot carries
+   private boolean[] slotBackward; // whether each slot is on its backward pass
+
+   /*
+    * Creates a pipeline with one slot per Workspace and starts the thread of every stage
+    *
+    * @param net            the network to train
+    * @param stageBounds    the first layer of every stage followed by noLayers, see getStageBounds
+    * @param slots          the training scratch arrays of each slot
+    * @param weights        the weights of the network, one [j][k] buffer per layer
+    * @param noCases        the number of training cases
+    * @param lambda         the learning factor
+    */
+   public PipelineTrainer(Perceptron net, int[] stageBounds, Workspace[] slots, double[][] weights,
+                          int noCases, double lambda)
+   {
+      this.net = net;
+      this.stageBounds = stageBounds;
+      this.slots = slots;
+      this.weights = weights;
+      this.noCases = noCases;
+      this.lambda = lambda;
+      stages = stageBounds.length - 1;
+
+      stagePool = Executors.newFixedThreadPool(stages, task ->
+      {
+         Thread thread = new Thread(task, "pipeline-stage");
+         thread.setDaemon(true);
+         return thread;
+      });
+
+      stageInboxes = new ArrayList<BlockingQueue<Integer>>();
+      for (int s = 0; s < stages; s++)
+      {
+         stageInboxes.add(new ArrayBlockingQueue<Integer>(slots.length));
+      }
+      slotCases = new int[slots.length];
+      slotBackward = new boolean[slots.length];
+   } // public PipelineTrainer(Perceptron net, int[] stageBounds, Workspace[] slots, double[][] weights, ...)
+
+   /*
+    * Trains one epoch through the pipeline. Every stage runs on a thread of stagePool until it has
+    * taken the backward pass of every case; if one stage fails the pool is shut down, which interrupts
+    * the stages waiting on it. The pool is gone after a failure, but so is the training run.
+    *
+    * @param epoch    the number of epochs trained so far
+    * @return         0, since every case takes its step
+    */
+   public int trainEpoch(int epoch)
+   {
+      List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+
+      for (int s = 0; s < stages; s++)
+      {
+         int stage = s;
+
+         tasks.add(() ->
+         {
+            try
+            {
+               runStage(stage);
+            }
+            catch (InterruptedException | RuntimeException | Error e)
+            {
+               stagePool.shutdownNow();
+               throw e;
+            }
+
+            return null;
+         });
+      } // for (int s = 0; s < stages; s++)
+
+      Perceptron.invokeAll(stagePool, tasks);
+
+      return 0;
+   } // public int trainEpoch(int epoch)
+
+   /*
+    * Runs one stage for an epoch. A slot is one Workspace carrying one case; it passes up the stages
+    * running their layers forward, and the last stage turns it around, stepping its layers, so it passes
+    * back down with every stage backpropagating through and stepping its layers. The first stage starts
+    * a new case whenever a slot is free and no backward pass is waiting, and frees the slot once the case
+    * is back. Each stage owns its layers' weights, so no two threads ever write the same array, and every
+    * handoff goes through an inbox, which orders the writes of one stage before the reads of the next.
+    *
+    * @param stage    the index of the stage
+    * @throws InterruptedException    if the pool is shut down because another stage failed
+    */
+   private void runStage(int stage) throws InterruptedException
+   {
+      int first = stageBounds[stage];
+      int last = stageBounds[stage + 1];
+      boolean top = stage == stages - 1;
+      ArrayDeque<Integer> freeSlots = new ArrayDeque<Integer>();
+      int nextCase = 0;
+      int finished = 0;
+      Integer slot;
+
+      if (stage == 0)
+      {
+         for (int i = 0; i < slots.length; i++)
+         {
+            freeSlots.add(i);
+         }
+      }
+
+      while (finished < noCases)
+      {
+         slot = stageInboxes.get(stage).poll();
+
+         if (slot == null && stage == 0 && nextCase < noCases && !freeSlots.isEmpty())
+         {
+            slot = freeSlots.poll();
+            slotCases[slot] = nextCase++;
+            slotBackward[slot] = false;
+         }
+         else if (slot == null)
+         {
+            slot = stageInboxes.get(stage).take();
+         }
+
+         Workspace ws = slots[slot];
+         int caseIndex = slotCases[slot];
+
+         if (!slotBackward[slot])
+         {
+            net.runTrain(caseIndex, ws, first, last);
+
+            if (!top)
+            {
+               sendToStage(stage + 1, slot, false);
+               continue;
+            }
+         } // if (!slotBackward[slot])
+
+         net.updateWeights(caseIndex, lambda, ws, weights, first, last);
+         finished++;
+
+         if (stage == 0)
+            freeSlots.add(slot);
+         else
+            sendToStage(stage - 1, slot, true);
+      } // while (finished < noCases)
+   } // private void runStage(int stage) throws InterruptedException
+
+   /*
+    * Hands a slot to the inbox of a stage. An inbox holds every slot, so this never waits.
+    *
+    * @param stage       the index of the receiving stage
+    * @param slot        the slot to hand over
+    * @param backward    true if the slot is on its backward pass
+    * @throws InterruptedException    if the pool is shut down because another stage failed
+    */
+   private void sendToStage(int stage, int slot, boolean backward) throws InterruptedException
+   {
+      slotBackward[slot] = backward;
+      stageInboxes.get(stage).put(slot);
+   }
+
+   /*
+    * Returns false, since every case is run in the epoch
+    */
+   public boolean staleOutputs()
+   {
+      return false;
+   }
+
+   /*
+    * Stops the stage threads
+    */
+   public void shutdown()
+   {
+      stagePool.shutdownNow();
+   }
+
+   /*
+    * Cuts the trained connectivity layers into contiguous stages with about equal numbers of weights:
+    * a stage ends after the layer that brings the running total to its share of all trained weights,
+    * or earlier if the remaining stages need the remaining layers
+    *
+    * @param stages           the number of stages, at most the number of trained layers
+    * @param freezeLayers     the number of connectivity layers that training leaves alone
+    * @param noLayers         the number of connectivity layers
+    * @param noActivations    the number of activations in each layer
+    * @return                 the first layer of every stage followed by noLayers
+    */
+   public static int[] getStageBounds(int stages, int freezeLayers, int noLayers, int[] noActivations)
+   {
+      int[] bounds = new int[stages + 1];
+      long total = 0;
+      long sum = 0;
+      int s = 1;
+
+      for (int n = freezeLayers; n < noLayers; n++)
+      {
+         total += (long) noActivations[n] * noActivations[n + 1];
+      }
+
+      bounds[0] = freezeLayers;
+      bounds[stages] = noLayers;
+
+      for (int n = freezeLayers; n < noLayers && s < stages; n++)
+      {
+         sum += (long) noActivations[n] * noActivations[n + 1];
+
+         if (sum * stages >= total * s || noLayers - (n + 1) == stages - s)
+            bounds[s++] = n + 1;
+      }
+
+      return bounds;
+   } // public static int[] getStageBounds(int stages, int freezeLayers, int noLayers, int[] noActivations)
+
+} // public class PipelineTrainer
@@ -0,0 +1,125 @@
+import java.util.*;
+
+/*
+ * Trains each epoch on noCases cases drawn from a SumTree, in proportion to their last error raised to
+ * PRIORITY_EXPONENT, so the cases the network gets most wrong are trained most often. Each step is scaled
+ * by the importance weight (1 / (noCases P_i))^beta so the frequently drawn cases do not bias the descent;
+ * beta grows from CORRECTION_EXPONENT to 1 over MAX_ITERATIONS. The weight is clamped at 1, so no step
+ * exceeds lambda even for a case whose priority has dropped to PRIORITY_EPSILON.
+ *
+ * Cases that were not drawn keep their old outputs, so the outputs are always reported stale, and every
+ * RECHECK_INTERVAL epochs every case is run again to refresh the priorities of cases rarely drawn.
+ *
+ * public PrioritySampler(Perceptron net, int noCases, double priorityExponent, double correctionExponent,
+ *                        int maxIterations, int recheckInterval, double lambda, Random random)
+ * public int trainEpoch(int epoch)
+ * private void trainSample(int epoch)
+ * private void refreshPriorities()
+ * public boolean staleOutputs()
+ * public void shutdown()
+ */
+public class PrioritySampler implements EpochScheduler
+{
+   private Perceptron net;
+   private int noCases;
+   private double priorityExponent, correctionExponent;
+   private int maxIterations;
+   private int recheckInterval;
+   private double lambda;
+   private Random random; // the generator of Perceptron, seeded by RANDOM_SEED when given
+   private SumTree priorities; // the sampling priority of every case
+
+   public static final double PRIORITY_EPSILON = 1.0e-8; // added to every case error so no case stops being drawn
+
+   /*
+    * Creates a sampler whose priorities are set from the errors of the first epoch's weights
+    *
+    * @param net                   the network to train
+    * @param noCases               the number of training cases
+    * @param priorityExponent      the power of the case errors that sets their priorities
+    * @param correctionExponent    the power of the importance weights in the first epoch
+    * @param maxIterations         the number of epochs over which that power grows to 1
+    * @param recheckInterval       every case is run again to refresh its priority every this many epochs
+    * @param lambda                the learning factor
+    * @param random                draws the cases
+    */
+   public PrioritySampler(Perceptron net, int noCases, double priorityExponent, double correctionExponent,
+                          int maxIterations, int recheckInterval, double lambda, Random random)
+   {
+      this.net = net;
+      this.noCases = noCases;
+      this.priorityExponent = priorityExponent;
+      this.correctionExponent = correctionExponent;
+      this.maxIterations = maxIterations;
+      this.recheckInterval = recheckInterval;
+      this.lambda = lambda;
+      this.random = random;
+      priorities = new SumTree(noCases);
+   } // public PrioritySampler(Perceptron net, int noCases, double priorityExponent, ...)
+
+   /*
+    * Refreshes the priorities on every RECHECK_INTERVAL-th epoch, the first included, then trains on
+    * noCases drawn cases
+    *
+    * @param epoch    the number of epochs trained so far
+    * @return         0, since every drawn case takes its step
+    */
+   public int trainEpoch(int epoch)
+   {
+      if (epoch % recheckInterval == 0)
+         refreshPriorities();
+
+      for (int ii = 0; ii < noCases; ii++)
+      {
+         trainSample(epoch);
+      }
+
+      return 0;
+   } // public int trainEpoch(int epoch)
+
+   /*
+    * Draws one case in proportion to its priority and trains on it with the step scaled by its
+    * importance weight. The weight is 1 for a case of average priority and smaller for frequently drawn
+    * ones; rarely drawn cases would get more than 1, up to about 10^4 for a solved case, so the weight is
+    * clamped at 1. The error the case had before the step becomes its new priority.
+    *
+    * @param epoch    the number of epochs trained so far
+    */
+   private void trainSample(int epoch)
+   {
+      int caseIndex = priorities.find(random.nextDouble() * priorities.total());
+      double beta = correctionExponent + (1.0 - correctionExponent) * epoch / maxIterations;
+
+      net.train(caseIndex, lambda * Math.min(1.0, Math.pow(priorities.total() / (noCases * priorities.get(caseIndex)), beta)));
+      priorities.set(caseIndex, Math.pow(net.errorFunction(caseIndex) + PRIORITY_EPSILON, priorityExponent));
+   } // private void trainSample(int epoch)
+
+   /*
+    * Runs every case with the current weights and sets its priority from its error
+    */
+   private void refreshPriorities()
+   {
+      net.runNetwork();
+
+      for (int ii = 0; ii < noCases; ii++)
+      {
+         priorities.set(ii, Math.pow(net.errorFunction(ii) + PRIORITY_EPSILON, priorityExponent));
+      }
+   } // private void refreshPriorities()
+
+   /*
+    * Returns true, since the cases not drawn in the last epoch keep the outputs of older weights
+    */
+   public boolean staleOutputs()
+   {
+      return true;
+   }
+
+   /*
+    * Does nothing, the sampler trains on the calling thread
+    */
+   public void shutdown()
+   {
+   }
+
+} // public class PrioritySampler
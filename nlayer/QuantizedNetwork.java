@@ -0,0 +1,207 @@
+import java.util.*;
+
+/*
+ * Int8 inference engine for a trained n-layer perceptron. Each row of weights (the weights feeding one
+ * activation) is stored as bytes in [-LEVELS, LEVELS] with one double scale, w ~ scale * q, using the
+ * flat [j][k] layout of Perceptron. Running a layer quantizes its input activations the same way with a
+ * single scale for the whole layer, takes the dot products in int through the layer's kernel and
+ * dequantizes each sum before the activation function, so the weights take an eighth of the memory of
+ * doubles and are read as bytes.
+ *
+ * Perceptron reads and writes the quantized weights file and moves values in and out through the
+ * accessors below.
+ *
+ * public QuantizedNetwork(int noLayers, int[] noActivations, Kernel[] layerKernels, int[] activationFunctions)
+ * public void quantize(double[][] doubleWeights)
+ * public void setWeight(int n, int index, int value)
+ * public int getWeight(int n, int index)
+ * public void setScale(int n, int j, double value)
+ * public double getScale(int n, int j)
+ * public long size()
+ * public void run(double[] in, double[] output)
+ * private double quantizeActivations(double[] x, int length)
+ */
+public class QuantizedNetwork
+{
+   public static final int LEVELS = 127; // largest magnitude of a quantized value, kept symmetric around 0
+
+   private int noLayers;
+   private int[] noActivations;
+   private Kernel[] layerKernels; // the kernel of each connectivity layer
+   private int[] activationFunctions;
+
+   private byte[][] weights; // one contiguous [j][k] buffer per layer, as in Perceptron
+   private double[][] scales; // the scale of each row of weights
+   private double[][] activations;
+   private byte[] quantizedInputs; // the quantized activations feeding the current layer
+
+   /*
+    * Allocates the arrays needed to run the network
+    *
+    * @param noLayers               the number of connectivity layers
+    * @param noActivations          the number of activations in each layer
+    * @param layerKernels           the kernel that runs the dot products of each connectivity layer
+    * @param activationFunctions    the Activation function of each activation layer
+    */
+   public QuantizedNetwork(int noLayers, int[] noActivations, Kernel[] layerKernels, int[] activationFunctions)
+   {
+      this.noLayers = noLayers;
+      this.noActivations = noActivations;
+      this.layerKernels = layerKernels;
+      this.activationFunctions = activationFunctions;
+
+      int widest = 0;
+      weights = new byte[noLayers][];
+      scales = new double[noLayers][];
+      activations = new double[noLayers + 1][];
+
+      for (int n = 0; n < noLayers; n++)
+      {
+         weights[n] = new byte[noActivations[n] * noActivations[n + 1]];
+         scales[n] = new double[noActivations[n + 1]];
+         widest = Math.max(widest, noActivations[n]);
+      }
+
+      for (int n = 0; n <= noLayers; n++)
+      {
+         activations[n] = new double[noActivations[n]];
+      }
+
+      quantizedInputs = new byte[widest];
+   } // public QuantizedNetwork(int noLayers, int[] noActivations, Kernel[] layerKernels, int[] activationFunctions)
+
+   /*
+    * Quantizes double weights in the flat [j][k] layout, giving each row the scale that maps its largest
+    * magnitude to LEVELS
+    *
+    * @param doubleWeights    one weights buffer per connectivity layer
+    */
+   public void quantize(double[][] doubleWeights)
+   {
+      for (int n = 0; n < noLayers; n++)
+      {
+         int width = noActivations[n];
+
+         for (int j = 0; j < noActivations[n + 1]; j++)
+         {
+            double max = 0.0;
+            for (int k = 0; k < width; k++)
+            {
+               max = Math.max(max, Math.abs(doubleWeights[n][j * width + k]));
+            }
+
+            scales[n][j] = max / LEVELS;
+
+            for (int k = 0; k < width; k++)
+            {
+               weights[n][j * width + k] = (max == 0.0) ? 0 : (byte) Math.round(doubleWeights[n][j * width + k] / scales[n][j]);
+            }
+         } // for (int j = 0; j < noActivations[n + 1]; j++)
+      } // for (int n = 0; n < noLayers; n++)
+   } // public void quantize(double[][] doubleWeights)
+
+   /*
+    * Sets a quantized weight by its index in the flat [j][k] buffer of layer n
+    */
+   public void setWeight(int n, int index, int value)
+   {
+      weights[n][index] = (byte) Math.max(-LEVELS, Math.min(LEVELS, value));
+   }
+
+   /*
+    * Returns a quantized weight by its index in the flat [j][k] buffer of layer n
+    */
+   public int getWeight(int n, int index)
+   {
+      return weights[n][index];
+   }
+
+   /*
+    * Sets the scale of row j of layer n
+    */
+   public void setScale(int n, int j, double value)
+   {
+      scales[n][j] = value;
+   }
+
+   /*
+    * Returns the scale of row j of layer n
+    */
+   public double getScale(int n, int j)
+   {
+      return scales[n][j];
+   }
+
+   /*
+    * Returns the number of bytes taken by the quantized weights and their scales
+    */
+   public long size()
+   {
+      long bytes = 0;
+      for (int n = 0; n < noLayers; n++)
+      {
+         bytes += weights[n].length + (long) Double.BYTES * scales[n].length;
+      }
+      return bytes;
+   } // public long size()
+
+   /*
+    * Runs the network on one case and writes the outputs
+    *
+    * @param in        the inputs of the case
+    * @param output    the array to write the outputs to
+    */
+   public void run(double[] in, double[] output)
+   {
+      double[] x = in;
+
+      for (int n = 0; n < noLayers; n++)
+      {
+         int width = noActivations[n];
+         byte[] layerWeights = weights[n];
+         double inputScale = quantizeActivations(x, width);
+
+         for (int j = 0; j < noActivations[n + 1]; j++)
+         {
+            int sum = layerKernels[n].dot(quantizedInputs, layerWeights, j * width, width);
+            activations[n + 1][j] = sum * inputScale * scales[n][j];
+         }
+         Activation.apply(activationFunctions[n + 1], activations[n + 1], activations[n + 1], noActivations[n + 1]);
+
+         x = activations[n + 1];
+      } // for (int n = 0; n < noLayers; n++)
+
+      System.arraycopy(activations[noLayers], 0, output, 0, noActivations[noLayers]);
+   } // public void run(double[] in, double[] output)
+
+   /*
+    * Quantizes x[0..length) into quantizedInputs with one scale mapping its largest magnitude to LEVELS
+    * and returns that scale
+    *
+    * @param x         the activations feeding a layer
+    * @param length    the number of activations
+    */
+   private double quantizeActivations(double[] x, int length)
+   {
+      double max = 0.0;
+      for (int k = 0; k < length; k++)
+      {
+         max = Math.max(max, Math.abs(x[k]));
+      }
+
+      if (max == 0.0)
+      {
+         Arrays.fill(quantizedInputs, 0, length, (byte) 0);
+         return 0.0;
+      }
+
+      double inverse = LEVELS / max;
+      for (int k = 0; k < length; k++)
+      {
+         quantizedInputs[k] = (byte) Math.round(x[k] * inverse);
+      }
+
+      return max / LEVELS;
+   } // private double quantizeActivations(double[] x, int length)
+
+} // public class QuantizedNetwork
@@ -0,0 +1,252 @@
+/*
+ * Plain Java implementation of Kernel. Every loop runs in increasing index order, so its results
+ * match the loops Perceptron used before kernels were introduced bit for bit.
+ *
+ * public double dot(double[] x, double[] w, int wOffset, int length)
+ * public void accumulate(double a, double[] w, int wOffset, double[] y, int length)
+ * public void updateRow(double lambda, double[] x, double psi, double[] w, int wOffset, int length)
+ * public void updateLayer(double lambda, double[] x, double[] psi, double[] w, int rows, int width)
+ * public float dot(float[] x, float[] w, int wOffset, int length)
+ * public void accumulate(float a, float[] w, int wOffset, float[] y, int length)
+ * public void updateRow(float lambda, float[] x, float psi, float[] w, int wOffset, int length)
+ * public void updateLayer(float lambda, float[] x, float[] psi, float[] w, int rows, int width)
+ * public int dot(byte[] x, byte[] w, int wOffset, int length)
+ * public double mixedDot(float[] x, float[] w, int wOffset, int length)
+ * public void mixedAccumulate(float a, float[] w, int wOffset, double[] y, int length)
+ * public void mixedUpdateRow(double lambda, float[] x, float psi, float[] w, int wOffset, int length)
+ * public void masterUpdateRow(double lambda, float[] x, float psi, double[] master, float[] w, int wOffset, int length)
+ * public String name()
+ */
+public class ScalarKernel implements Kernel
+{
+   /*
+    * Returns the dot product of x[0..length) and w[wOffset..wOffset + length)
+    */
+   public double dot(double[] x, double[] w, int wOffset, int length)
+   {
+      double sum = 0.0;
+
+      for (int i = 0; i < length; i++)
+      {
+         sum += x[i] * w[wOffset + i];
+      }
+
+      return sum;
+   } // public double dot(double[] x, double[] w, int wOffset, int length)
+
+   /*
+    * Adds a * w[wOffset + i] to y[i] for every i in [0, length)
+    */
+   public void accumulate(double a, double[] w, int wOffset, double[] y, int length)
+   {
+      for (int i = 0; i < length; i++)
+      {
+         y[i] += a * w[wOffset + i];
+      }
+   }
+
+   /*
+    * Adds lambda * x[i] * psi to w[wOffset + i] for every i in [0, length)
+    */
+   public void updateRow(double lambda, double[] x, double psi, double[] w, int wOffset, int length)
+   {
+      for (int i = 0; i < length; i++)
+      {
+         w[wOffset + i] += lambda * x[i] * psi;
+      }
+   }
+
+   /*
+    * Takes the steepest descent step for a whole layer, tiled over the columns and two rows at a time
+    */
+   public void updateLayer(double lambda, double[] x, double[] psi, double[] w, int rows, int width)
+   {
+      int mEnd, row0, row1, k;
+      double psi0, psi1, step;
+
+      for (int mStart = 0; mStart < width; mStart += UPDATE_TILE)
+      {
+         mEnd = Math.min(mStart + UPDATE_TILE, width);
+
+         for (k = 0; k + 1 < rows; k += 2)
+         {
+            row0 = k * width;
+            row1 = row0 + width;
+            psi0 = psi[k];
+            psi1 = psi[k + 1];
+
+            for (int m = mStart; m < mEnd; m++)
+            {
+               step = lambda * x[m];
+               w[row0 + m] += step * psi0;
+               w[row1 + m] += step * psi1;
+            }
+         } // for (k = 0; k + 1 < rows; k += 2)
+
+         if (k < rows)
+         {
+            row0 = k * width;
+            psi0 = psi[k];
+
+            for (int m = mStart; m < mEnd; m++)
+            {
+               w[row0 + m] += lambda * x[m] * psi0;
+            }
+         }
+      } // for (int mStart = 0; mStart < width; mStart += UPDATE_TILE)
+   } // public void updateLayer(double lambda, double[] x, double[] psi, double[] w, int rows, int width)
+
+   /*
+    * Returns the dot product of x[0..length) and w[wOffset..wOffset + length), summed in single precision
+    */
+   public float dot(float[] x, float[] w, int wOffset, int length)
+   {
+      float sum = 0.0f;
+
+      for (int i = 0; i < length; i++)
+      {
+         sum += x[i] * w[wOffset + i];
+      }
+
+      return sum;
+   } // public float dot(float[] x, float[] w, int wOffset, int length)
+
+   /*
+    * Adds a * w[wOffset + i] to y[i] for every i in [0, length)
+    */
+   public void accumulate(float a, float[] w, int wOffset, float[] y, int length)
+   {
+      for (int i = 0; i < length; i++)
+      {
+         y[i] += a * w[wOffset + i];
+      }
+   }
+
+   /*
+    * Adds lambda * x[i] * psi to w[wOffset + i] for every i in [0, length)
+    */
+   public void updateRow(float lambda, float[] x, float psi, float[] w, int wOffset, int length)
+   {
+      for (int i = 0; i < length; i++)
+      {
+         w[wOffset + i] += lambda * x[i] * psi;
+      }
+   }
+
+   /*
+    * Takes the steepest descent step for a whole layer in single precision, tiled as the double version
+    */
+   public void updateLayer(float lambda, float[] x, float[] psi, float[] w, int rows, int width)
+   {
+      int mEnd, row0, row1, k;
+      float psi0, psi1, step;
+
+      for (int mStart = 0; mStart < width; mStart += UPDATE_TILE)
+      {
+         mEnd = Math.min(mStart + UPDATE_TILE, width);
+
+         for (k = 0; k + 1 < rows; k += 2)
+         {
+            row0 = k * width;
+            row1 = row0 + width;
+            psi0 = psi[k];
+            psi1 = psi[k + 1];
+
+            for (int m = mStart; m < mEnd; m++)
+            {
+               step = lambda * x[m];
+               w[row0 + m] += step * psi0;
+               w[row1 + m] += step * psi1;
+            }
+         } // for (k = 0; k + 1 < rows; k += 2)
+
+         if (k < rows)
+         {
+            row0 = k * width;
+            psi0 = psi[k];
+
+            for (int m = mStart; m < mEnd; m++)
+            {
+               w[row0 + m] += lambda * x[m] * psi0;
+            }
+         }
+      } // for (int mStart = 0; mStart < width; mStart += UPDATE_TILE)
+   } // public void updateLayer(float lambda, float[] x, float[] psi, float[] w, int rows, int width)
+
+   /*
+    * Returns the dot product of the int8 values x[0..length) and w[wOffset..wOffset + length)
+    */
+   public int dot(byte[] x, byte[] w, int wOffset, int length)
+   {
+      int sum = 0;
+
+      for (int i = 0; i < length; i++)
+      {
+         sum += x[i] * w[wOffset + i];
+      }
+
+      return sum;
+   } // public int dot(byte[] x, byte[] w, int wOffset, int length)
+
+   /*
+    * Returns the dot product of the floats x[0..length) and w[wOffset..wOffset + length), summed in double
+    */
+   public double mixedDot(float[] x, float[] w, int wOffset, int length)
+   {
+      double sum = 0.0;
+
+      for (int i = 0; i < length; i++)
+      {
+         sum += (double) x[i] * w[wOffset + i];
+      }
+
+      return sum;
+   } // public double mixedDot(float[] x, float[] w, int wOffset, int length)
+
+   /*
+    * Adds a * w[wOffset + i] to the double y[i] for every i in [0, length)
+    */
+   public void mixedAccumulate(float a, float[] w, int wOffset, double[] y, int length)
+   {
+      for (int i = 0; i < length; i++)
+      {
+         y[i] += (double) a * w[wOffset + i];
+      }
+   } // public void mixedAccumulate(float a, float[] w, int wOffset, double[] y, int length)
+
+   /*
+    * Adds lambda * x[i] * psi to w[wOffset + i] in double, rounding each new weight to float once
+    */
+   public void mixedUpdateRow(double lambda, float[] x, float psi, float[] w, int wOffset, int length)
+   {
+      double step = lambda * psi;
+
+      for (int i = 0; i < length; i++)
+      {
+         w[wOffset + i] = (float) (w[wOffset + i] + step * x[i]);
+      }
+   } // public void mixedUpdateRow(double lambda, float[] x, float psi, float[] w, int wOffset, int length)
+
+   /*
+    * Adds lambda * x[i] * psi to master[wOffset + i] and copies the result, rounded, into w[wOffset + i]
+    */
+   public void masterUpdateRow(double lambda, float[] x, float psi, double[] master, float[] w, int wOffset, int length)
+   {
+      double step = lambda * psi;
+
+      for (int i = 0; i < length; i++)
+      {
+         master[wOffset + i] += step * x[i];
+         w[wOffset + i] = (float) master[wOffset + i];
+      }
+   } // public void masterUpdateRow(double lambda, float[] x, float psi, double[] master, float[] w, int wOffset, int length)
+
+   /*
+    * Returns the name of the kernel as used in the configuration file
+    */
+   public String name()
+   {
+      return "scalar";
+   }
+
+} // public class ScalarKernel implements Kernel
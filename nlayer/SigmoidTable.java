@@ -0,0 +1,47 @@
+/*
+ * A lookup table approximation of the sigmoid function 1 / (1 + e^-x). The table holds the exact sigmoid
+ * at STEPS_PER_UNIT points per unit between -RANGE and RANGE and interpolates linearly between them.
+ * Outside that range it returns the value at the nearest end of the table.
+ *
+ * Error bound: linear interpolation is off by at most h^2 / 8 * max|sigmoid''| = (1/128)^2 / 8 * 0.0962,
+ * about 7.3e-7, and clamping at |x| = 16 is off by at most sigmoid(-16), about 1.1e-7, so the maximum
+ * absolute error over all x is below 1e-6.
+ *
+ * public static double sigmoid(double x)
+ */
+public class SigmoidTable
+{
+   public static final double RANGE = 16.0; // the table covers [-RANGE, RANGE]
+   public static final int STEPS_PER_UNIT = 128; // table points per unit of x
+   public static final int SIZE = (int) (2.0 * RANGE * STEPS_PER_UNIT) + 1;
+
+   private static final double[] TABLE = new double[SIZE];
+
+   static
+   {
+      for (int i = 0; i < SIZE; i++)
+      {
+         TABLE[i] = 1.0 / (1.0 + Math.exp(-(i / (double) STEPS_PER_UNIT - RANGE)));
+      }
+   }
+
+   /*
+    * Returns the interpolated sigmoid of x
+    *
+    * @param x    the value passed to the sigmoid function
+    */
+   public static double sigmoid(double x)
+   {
+      if (x <= -RANGE)
+         return TABLE[0];
+      if (x >= RANGE)
+         return TABLE[SIZE - 1];
+
+      double position = (x + RANGE) * STEPS_PER_UNIT;
+      int i = (int) position;
+      double fraction = position - i;
+
+      return TABLE[i] + fraction * (TABLE[i + 1] - TABLE[i]);
+   } // public static double sigmoid(double x)
+
+} // public class SigmoidTable
@@ -0,0 +1,96 @@
+/*
+ * A complete binary tree over the priorities of size items, in one array like a binary heap: node i has
+ * the children 2i and 2i + 1 and the leaves are the nodes capacity..capacity + size - 1. Every inner node
+ * holds the sum of the priorities below it, so changing one priority and drawing an item with
+ * probability proportional to its priority both take O(log size) steps.
+ *
+ * public SumTree(int size)
+ * public void set(int item, double priority)
+ * public double get(int item)
+ * public int find(double u)
+ * public double total()
+ */
+public class SumTree
+{
+   private int size, capacity;
+   private double[] sums;
+
+   /*
+    * Allocates a tree for the given number of items, every priority 0
+    *
+    * @param size    the number of items
+    */
+   public SumTree(int size)
+   {
+      this.size = size;
+      capacity = 1;
+      while (capacity < size)
+      {
+         capacity *= 2;
+      }
+
+      sums = new double[2 * capacity];
+   } // public SumTree(int size)
+
+   /*
+    * Sets the priority of an item and updates the sums above it
+    *
+    * @param item        the index of the item
+    * @param priority    the new priority, at least 0
+    */
+   public void set(int item, double priority)
+   {
+      int node = capacity + item;
+      sums[node] = priority;
+
+      for (node /= 2; node >= 1; node /= 2)
+      {
+         sums[node] = sums[2 * node] + sums[2 * node + 1];
+      }
+   } // public void set(int item, double priority)
+
+   /*
+    * Returns the priority of an item
+    *
+    * @param item    the index of the item
+    */
+   public double get(int item)
+   {
+      return sums[capacity + item];
+   }
+
+   /*
+    * Returns the item whose range of cumulative priority holds u, so a u drawn uniformly from
+    * [0, total()) picks each item with probability priority / total()
+    *
+    * @param u    a value in [0, total())
+    */
+   public int find(double u)
+   {
+      int node = 1;
+
+      while (node < capacity)
+      {
+         if (u < sums[2 * node])
+         {
+            node = 2 * node;
+         }
+         else
+         {
+            u -= sums[2 * node];
+            node = 2 * node + 1;
+         }
+      } // while (node < capacity)
+
+      return Math.min(node - capacity, size - 1); // rounding can carry u just past the last item
+   } // public int find(double u)
+
+   /*
+    * Returns the sum of all priorities
+    */
+   public double total()
+   {
+      return sums[1];
+   }
+
+} // public class SumTree
@@ -0,0 +1,171 @@
+import java.util.*;
+import java.util.concurrent.*;
+
+/*
+ * Trains each epoch in synchronous data-parallel steps of STEP_CASES cases. Every worker runs and
+ * backpropagates its shard of a step's cases against the same weights into a private gradient buffer,
+ * the buffers are summed pairwise in a fixed tree, and lambda times their mean is added to the weights
+ * once. The order of every sum depends only on the thread count, so equal seeds and thread counts give
+ * equal weights.
+ *
+ * The workers run on the ForkJoinPool of Perceptron, or one after another on the calling thread when
+ * there is none.
+ *
+ * public SyncTrainer(Perceptron net, ExecutorService pool, Workspace[] spaces, double[][] weights,
+ *                    Kernel[] layerKernels, int freezeLayers, int noCases, int stepCases, double lambda)
+ * public int trainEpoch(int epoch)
+ * private void trainStep(int firstCase, int count)
+ * public boolean staleOutputs()
+ * public void shutdown()
+ */
+public class SyncTrainer implements EpochScheduler
+{
+   private Perceptron net;
+   private ExecutorService pool; // runs the workers, null to run them on the calling thread
+   private Workspace[] spaces; // the scratch arrays of each worker
+   private double[][] weights;
+   private Kernel[] layerKernels;
+   private int freezeLayers;
+   private int noCases;
+   private int stepCases;
+   private double lambda;
+   private int threads; // the number of workers, one per Workspace
+   private double[][][] gradients; // the [worker][n] gradient buffers, shaped like weights
+
+   /*
+    * Creates a trainer with one worker per Workspace and allocates their gradient buffers
+    *
+    * @param net             the network to train
+    * @param pool            the threads to run the workers on, or null
+    * @param spaces          the training scratch arrays of each worker
+    * @param weights         the weights of the network, one [j][k] buffer per layer
+    * @param layerKernels    the kernel of each connectivity layer
+    * @param freezeLayers    the number of connectivity layers that training leaves alone
+    * @param noCases         the number of training cases
+    * @param stepCases       the number of cases per step
+    * @param lambda          the learning factor
+    */
+   public SyncTrainer(Perceptron net, ExecutorService pool, Workspace[] spaces, double[][] weights,
+                      Kernel[] layerKernels, int freezeLayers, int noCases, int stepCases, double lambda)
+   {
+      this.net = net;
+      this.pool = pool;
+      this.spaces = spaces;
+      this.weights = weights;
+      this.layerKernels = layerKernels;
+      this.freezeLayers = freezeLayers;
+      this.noCases = noCases;
+      this.stepCases = stepCases;
+      this.lambda = lambda;
+      threads = spaces.length;
+
+      gradients = new double[threads][weights.length][];
+      for (int t = 0; t < threads; t++)
+      {
+         for (int n = freezeLayers; n < weights.length; n++)
+         {
+            gradients[t][n] = new double[weights[n].length];
+         }
+      }
+   } // public SyncTrainer(Perceptron net, ExecutorService pool, Workspace[] spaces, double[][] weights, ...)
+
+   /*
+    * Takes the cases in order, STEP_CASES at a time, the last step taking whatever is left
+    *
+    * @param epoch    the number of epochs trained so far
+    * @return         0, since every case takes part in a step
+    */
+   public int trainEpoch(int epoch)
+   {
+      for (int ii = 0; ii < noCases; ii += stepCases)
+      {
+         trainStep(ii, Math.min(stepCases, noCases - ii));
+      }
+
+      return 0;
+   } // public int trainEpoch(int epoch)
+
+   /*
+    * Takes one synchronous data-parallel step over count consecutive cases. Worker t trains the t-th
+    * of threads equal shards of the cases into gradients[t], with the weights left untouched, then
+    * level by level gradients[t] += gradients[t + stride] for stride = 1, 2, 4... until gradients[0]
+    * holds the sum, and the weights take lambda / count times that sum, so a step is as large as one
+    * serial step with the mean gradient of its cases, whatever STEP_CASES is.
+    *
+    * @param firstCase    the index of the first case of the step
+    * @param count        the number of cases in the step
+    */
+   private void trainStep(int firstCase, int count)
+   {
+      List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+
+      for (int t = 0; t < threads; t++)
+      {
+         int worker = t;
+         int start = firstCase + t * count / threads;
+         int end = firstCase + (t + 1) * count / threads;
+
+         tasks.add(() ->
+         {
+            for (int n = freezeLayers; n < weights.length; n++)
+            {
+               Arrays.fill(gradients[worker][n], 0.0);
+            }
+
+            for (int ii = start; ii < end; ii++)
+            {
+               net.runTrain(ii, spaces[worker]);
+               net.updateWeights(ii, 1.0, spaces[worker], gradients[worker]);
+            }
+
+            return null;
+         });
+      } // for (int t = 0; t < threads; t++)
+
+      Perceptron.invokeAll(pool, tasks);
+
+      for (int stride = 1; stride < threads; stride *= 2)
+      {
+         tasks.clear();
+
+         for (int t = 0; t + stride < threads; t += 2 * stride)
+         {
+            int target = t;
+            int source = t + stride;
+
+            tasks.add(() ->
+            {
+               for (int n = freezeLayers; n < weights.length; n++)
+               {
+                  layerKernels[n].accumulate(1.0, gradients[source][n], 0, gradients[target][n], gradients[target][n].length);
+               }
+
+               return null;
+            });
+         } // for (int t = 0; t + stride < threads; t += 2 * stride)
+
+         Perceptron.invokeAll(pool, tasks);
+      } // for (int stride = 1; stride < threads; stride *= 2)
+
+      for (int n = freezeLayers; n < weights.length; n++)
+      {
+         layerKernels[n].accumulate(lambda / count, gradients[0][n], 0, weights[n], weights[n].length);
+      }
+   } // private void trainStep(int firstCase, int count)
+
+   /*
+    * Returns false, since every case is run in the epoch
+    */
+   public boolean staleOutputs()
+   {
+      return false;
+   }
+
+   /*
+    * Does nothing, the pool belongs to Perceptron
+    */
+   public void shutdown()
+   {
+   }
+
+} // public class SyncTrainer
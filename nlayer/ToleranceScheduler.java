@@ -0,0 +1,91 @@
+/*
+ * Trains every case in order but skips the weight update of a case whose error is already below
+ * CASE_TOLERANCE. converged[ii] marks the cases that were below it when last trained; they are left out
+ * of training altogether until the next recheck epoch, every RECHECK_INTERVAL epochs, when every case is
+ * run again. The outputs of the cases left out are stale, so the scheduler reports them after any epoch
+ * that skipped a case.
+ *
+ * public ToleranceScheduler(Perceptron net, int noCases, double caseTolerance, int recheckInterval, double lambda)
+ * public int trainEpoch(int epoch)
+ * public boolean staleOutputs()
+ * public void shutdown()
+ */
+public class ToleranceScheduler implements EpochScheduler
+{
+   private Perceptron net;
+   private int noCases;
+   private double caseTolerance;
+   private int recheckInterval;
+   private double lambda;
+   private boolean[] converged; // the cases that were below the tolerance when last run
+   private int skipped; // the cases skipped in the last epoch
+
+   /*
+    * Creates a scheduler with no case converged yet
+    *
+    * @param net                the network to train
+    * @param noCases            the number of training cases
+    * @param caseTolerance      cases with a lower error skip their weight update
+    * @param recheckInterval    converged cases are run again every this many epochs
+    * @param lambda             the learning factor
+    */
+   public ToleranceScheduler(Perceptron net, int noCases, double caseTolerance, int recheckInterval, double lambda)
+   {
+      this.net = net;
+      this.noCases = noCases;
+      this.caseTolerance = caseTolerance;
+      this.recheckInterval = recheckInterval;
+      this.lambda = lambda;
+      converged = new boolean[noCases];
+   } // public ToleranceScheduler(Perceptron net, int noCases, double caseTolerance, int recheckInterval, double lambda)
+
+   /*
+    * Runs every case that is not converged, or every case on a recheck epoch, and takes the weight update
+    * of those still above the tolerance. The unrolled network cannot stop between its two passes, so
+    * trainBackward runs the case once more to train it.
+    *
+    * @param epoch    the number of epochs trained so far
+    * @return         the number of cases whose weight update was skipped
+    */
+   public int trainEpoch(int epoch)
+   {
+      boolean recheck = epoch % recheckInterval == 0;
+      skipped = 0;
+
+      for (int ii = 0; ii < noCases; ii++)
+      {
+         if (converged[ii] && !recheck)
+         {
+            skipped++;
+         }
+         else
+         {
+            net.trainForward(ii);
+            converged[ii] = net.errorFunction(ii) < caseTolerance;
+
+            if (converged[ii])
+               skipped++;
+            else
+               net.trainBackward(ii, lambda);
+         }
+      } // for (int ii = 0; ii < noCases; ii++)
+
+      return skipped;
+   } // public int trainEpoch(int epoch)
+
+   /*
+    * Returns true if the last epoch skipped a case, whose outputs then predate the last weight updates
+    */
+   public boolean staleOutputs()
+   {
+      return skipped > 0;
+   }
+
+   /*
+    * Does nothing, the scheduler trains on the calling thread
+    */
+   public void shutdown()
+   {
+   }
+
+} // public class ToleranceScheduler
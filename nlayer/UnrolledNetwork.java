@@ -0,0 +1,47 @@
+/*
+ * A network whose forward pass and backpropagation are generated for one fixed topology by
+ * NetworkGenerator. Every loop is unrolled and every weight is a field of the generated class,
+ * so running and training read no weights arrays at all. Perceptron copies the weights in with
+ * load before use and back out with store before it reads or writes them itself.
+ *
+ * public void load(double[][] weights)
+ * public void store(double[][] weights)
+ * public void run(double[] in, double[] out)
+ * public void train(double[] in, double[] target, double[] out, double lambda)
+ */
+public interface UnrolledNetwork
+{
+   /*
+    * Copies the weights from Perceptron's flat [j][k] layer buffers into the generated fields
+    *
+    * @param weights    one flat buffer per connectivity layer
+    */
+   public void load(double[][] weights);
+
+   /*
+    * Copies the generated fields back into Perceptron's flat [j][k] layer buffers
+    *
+    * @param weights    one flat buffer per connectivity layer
+    */
+   public void store(double[][] weights);
+
+   /*
+    * Runs the network for one case
+    *
+    * @param in     the inputs of the case
+    * @param out    the array to write the outputs to
+    */
+   public void run(double[] in, double[] out);
+
+   /*
+    * Runs the network for one case and takes one steepest descent step on its error,
+    * exactly as Perceptron.runTrain followed by Perceptron.updateWeights
+    *
+    * @param in        the inputs of the case
+    * @param target    the expected outputs of the case
+    * @param out       the array to write the outputs to
+    * @param lambda    the learning factor
+    */
+   public void train(double[] in, double[] target, double[] out, double lambda);
+
+} // public interface UnrolledNetwork
@@ -0,0 +1,432 @@
+import jdk.incubator.vector.*;
+
+/*
+ * Implementation of Kernel on the JDK Vector API. The loops work on the widest vector the CPU supports
+ * (4 doubles or 8 floats with AVX2, twice that with AVX-512) and finish the remaining elements in scalar code.
+ * The dot product keeps two independent vector accumulators to hide the latency of the fused
+ * multiply-add, so its sums are rounded differently from ScalarKernel. The two update loops are
+ * element-wise and give the same results as ScalarKernel.
+ *
+ * This file needs the incubator module to compile and run:
+ * javac --add-modules jdk.incubator.vector *.java
+ * java --add-modules jdk.incubator.vector Main
+ *
+ * public double dot(double[] x, double[] w, int wOffset, int length)
+ * public void accumulate(double a, double[] w, int wOffset, double[] y, int length)
+ * public void updateRow(double lambda, double[] x, double psi, double[] w, int wOffset, int length)
+ * public void updateLayer(double lambda, double[] x, double[] psi, double[] w, int rows, int width)
+ * public float dot(float[] x, float[] w, int wOffset, int length)
+ * public void accumulate(float a, float[] w, int wOffset, float[] y, int length)
+ * public void updateRow(float lambda, float[] x, float psi, float[] w, int wOffset, int length)
+ * public void updateLayer(float lambda, float[] x, float[] psi, float[] w, int rows, int width)
+ * public int dot(byte[] x, byte[] w, int wOffset, int length)
+ * public double mixedDot(float[] x, float[] w, int wOffset, int length)
+ * public void mixedAccumulate(float a, float[] w, int wOffset, double[] y, int length)
+ * public void mixedUpdateRow(double lambda, float[] x, float psi, float[] w, int wOffset, int length)
+ * public void masterUpdateRow(double lambda, float[] x, float psi, double[] master, float[] w, int wOffset, int length)
+ * public String name()
+ * private static DoubleVector widen(float[] a, int offset)
+ * private static FloatVector narrow(DoubleVector v)
+ */
+public class VectorKernel implements Kernel
+{
+   private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+   private static final int LANES = SPECIES.length();
+   private static final VectorSpecies<Float> FLOAT_SPECIES = FloatVector.SPECIES_PREFERRED;
+   private static final int FLOAT_LANES = FLOAT_SPECIES.length();
+   private static final VectorSpecies<Integer> INT_SPECIES = IntVector.SPECIES_PREFERRED;
+   private static final int INT_LANES = INT_SPECIES.length();
+   private static final VectorSpecies<Byte> BYTE_SPECIES = // the bytes widened into one int vector, at least 64 bits
+         VectorSpecies.of(byte.class, VectorShape.forBitSize(Math.max(64, INT_SPECIES.vectorBitSize() / 4)));
+   private static final VectorSpecies<Float> HALF_FLOAT_SPECIES = // as many floats as SPECIES holds doubles
+         VectorSpecies.of(float.class, VectorShape.forBitSize(SPECIES.vectorBitSize() / 2));
+
+   /*
+    * Returns the dot product of x[0..length) and w[wOffset..wOffset + length)
+    */
+   public double dot(double[] x, double[] w, int wOffset, int length)
+   {
+      DoubleVector sum0 = DoubleVector.zero(SPECIES);
+      DoubleVector sum1 = DoubleVector.zero(SPECIES);
+      int i = 0;
+
+      for (; i <= length - 2 * LANES; i += 2 * LANES)
+      {
+         sum0 = DoubleVector.fromArray(SPECIES, x, i).fma(DoubleVector.fromArray(SPECIES, w, wOffset + i), sum0);
+         sum1 = DoubleVector.fromArray(SPECIES, x, i + LANES).fma(DoubleVector.fromArray(SPECIES, w, wOffset + i + LANES), sum1);
+      }
+
+      for (; i <= length - LANES; i += LANES)
+      {
+         sum0 = DoubleVector.fromArray(SPECIES, x, i).fma(DoubleVector.fromArray(SPECIES, w, wOffset + i), sum0);
+      }
+
+      double sum = sum0.add(sum1).reduceLanes(VectorOperators.ADD);
+
+      for (; i < length; i++)
+      {
+         sum += x[i] * w[wOffset + i];
+      }
+
+      return sum;
+   } // public double dot(double[] x, double[] w, int wOffset, int length)
+
+   /*
+    * Adds a * w[wOffset + i] to y[i] for every i in [0, length)
+    */
+   public void accumulate(double a, double[] w, int wOffset, double[] y, int length)
+   {
+      int i = 0;
+
+      for (; i <= length - LANES; i += LANES)
+      {
+         DoubleVector.fromArray(SPECIES, w, wOffset + i).mul(a)
+               .add(DoubleVector.fromArray(SPECIES, y, i))
+               .intoArray(y, i);
+      }
+
+      for (; i < length; i++)
+      {
+         y[i] += a * w[wOffset + i];
+      }
+   } // public void accumulate(double a, double[] w, int wOffset, double[] y, int length)
+
+   /*
+    * Adds lambda * x[i] * psi to w[wOffset + i] for every i in [0, length)
+    */
+   public void updateRow(double lambda, double[] x, double psi, double[] w, int wOffset, int length)
+   {
+      int i = 0;
+
+      for (; i <= length - LANES; i += LANES)
+      {
+         DoubleVector.fromArray(SPECIES, x, i).mul(lambda).mul(psi)
+               .add(DoubleVector.fromArray(SPECIES, w, wOffset + i))
+               .intoArray(w, wOffset + i);
+      }
+
+      for (; i < length; i++)
+      {
+         w[wOffset + i] += lambda * x[i] * psi;
+      }
+   } // public void updateRow(double lambda, double[] x, double psi, double[] w, int wOffset, int length)
+
+   /*
+    * Takes the steepest descent step for a whole layer, tiled over the columns and two rows at a time
+    */
+   public void updateLayer(double lambda, double[] x, double[] psi, double[] w, int rows, int width)
+   {
+      int mEnd, row0, row1, k, m;
+      double psi0, psi1;
+      DoubleVector step;
+
+      for (int mStart = 0; mStart < width; mStart += UPDATE_TILE)
+      {
+         mEnd = Math.min(mStart + UPDATE_TILE, width);
+
+         for (k = 0; k + 1 < rows; k += 2)
+         {
+            row0 = k * width;
+            row1 = row0 + width;
+            psi0 = psi[k];
+            psi1 = psi[k + 1];
+
+            for (m = mStart; m <= mEnd - LANES; m += LANES)
+            {
+               step = DoubleVector.fromArray(SPECIES, x, m).mul(lambda);
+               step.mul(psi0).add(DoubleVector.fromArray(SPECIES, w, row0 + m)).intoArray(w, row0 + m);
+               step.mul(psi1).add(DoubleVector.fromArray(SPECIES, w, row1 + m)).intoArray(w, row1 + m);
+            }
+
+            for (; m < mEnd; m++)
+            {
+               w[row0 + m] += lambda * x[m] * psi0;
+               w[row1 + m] += lambda * x[m] * psi1;
+            }
+         } // for (k = 0; k + 1 < rows; k += 2)
+
+         for (; k < rows; k++)
+         {
+            updateRowRange(lambda, x, psi[k], w, k * width, mStart, mEnd);
+         }
+      } // for (int mStart = 0; mStart < width; mStart += UPDATE_TILE)
+   } // public void updateLayer(double lambda, double[] x, double[] psi, double[] w, int rows, int width)
+
+   /*
+    * Adds lambda * x[m] * psi to w[wOffset + m] for every m in [mStart, mEnd)
+    */
+   private void updateRowRange(double lambda, double[] x, double psi, double[] w, int wOffset, int mStart, int mEnd)
+   {
+      int m = mStart;
+
+      for (; m <= mEnd - LANES; m += LANES)
+      {
+         DoubleVector.fromArray(SPECIES, x, m).mul(lambda).mul(psi)
+               .add(DoubleVector.fromArray(SPECIES, w, wOffset + m))
+               .intoArray(w, wOffset + m);
+      }
+
+      for (; m < mEnd; m++)
+      {
+         w[wOffset + m] += lambda * x[m] * psi;
+      }
+   } // private void updateRowRange(double lambda, double[] x, double psi, double[] w, int wOffset, int mStart, int mEnd)
+
+   /*
+    * Returns the dot product of x[0..length) and w[wOffset..wOffset + length), summed in single precision
+    */
+   public float dot(float[] x, float[] w, int wOffset, int length)
+   {
+      FloatVector sum0 = FloatVector.zero(FLOAT_SPECIES);
+      FloatVector sum1 = FloatVector.zero(FLOAT_SPECIES);
+      int i = 0;
+
+      for (; i <= length - 2 * FLOAT_LANES; i += 2 * FLOAT_LANES)
+      {
+         sum0 = FloatVector.fromArray(FLOAT_SPECIES, x, i).fma(FloatVector.fromArray(FLOAT_SPECIES, w, wOffset + i), sum0);
+         sum1 = FloatVector.fromArray(FLOAT_SPECIES, x, i + FLOAT_LANES).fma(FloatVector.fromArray(FLOAT_SPECIES, w, wOffset + i + FLOAT_LANES), sum1);
+      }
+
+      for (; i <= length - FLOAT_LANES; i += FLOAT_LANES)
+      {
+         sum0 = FloatVector.fromArray(FLOAT_SPECIES, x, i).fma(FloatVector.fromArray(FLOAT_SPECIES, w, wOffset + i), sum0);
+      }
+
+      float sum = sum0.add(sum1).reduceLanes(VectorOperators.ADD);
+
+      for (; i < length; i++)
+      {
+         sum += x[i] * w[wOffset + i];
+      }
+
+      return sum;
+   } // public float dot(float[] x, float[] w, int wOffset, int length)
+
+   /*
+    * Adds a * w[wOffset + i] to y[i] for every i in [0, length)
+    */
+   public void accumulate(float a, float[] w, int wOffset, float[] y, int length)
+   {
+      int i = 0;
+
+      for (; i <= length - FLOAT_LANES; i += FLOAT_LANES)
+      {
+         FloatVector.fromArray(FLOAT_SPECIES, w, wOffset + i).mul(a)
+               .add(FloatVector.fromArray(FLOAT_SPECIES, y, i))
+               .intoArray(y, i);
+      }
+
+      for (; i < length; i++)
+      {
+         y[i] += a * w[wOffset + i];
+      }
+   } // public void accumulate(float a, float[] w, int wOffset, float[] y, int length)
+
+   /*
+    * Adds lambda * x[i] * psi to w[wOffset + i] for every i in [0, length)
+    */
+   public void updateRow(float lambda, float[] x, float psi, float[] w, int wOffset, int length)
+   {
+      int i = 0;
+
+      for (; i <= length - FLOAT_LANES; i += FLOAT_LANES)
+      {
+         FloatVector.fromArray(FLOAT_SPECIES, x, i).mul(lambda).mul(psi)
+               .add(FloatVector.fromArray(FLOAT_SPECIES, w, wOffset + i))
+               .intoArray(w, wOffset + i);
+      }
+
+      for (; i < length; i++)
+      {
+         w[wOffset + i] += lambda * x[i] * psi;
+      }
+   } // public void updateRow(float lambda, float[] x, float psi, float[] w, int wOffset, int length)
+
+   /*
+    * Takes the steepest descent step for a whole layer in single precision, tiled as the double version
+    */
+   public void updateLayer(float lambda, float[] x, float[] psi, float[] w, int rows, int width)
+   {
+      int mEnd, row0, row1, k, m;
+      float psi0, psi1;
+      FloatVector step;
+
+      for (int mStart = 0; mStart < width; mStart += UPDATE_TILE)
+      {
+         mEnd = Math.min(mStart + UPDATE_TILE, width);
+
+         for (k = 0; k + 1 < rows; k += 2)
+         {
+            row0 = k * width;
+            row1 = row0 + width;
+            psi0 = psi[k];
+            psi1 = psi[k + 1];
+
+            for (m = mStart; m <= mEnd - FLOAT_LANES; m += FLOAT_LANES)
+            {
+               step = FloatVector.fromArray(FLOAT_SPECIES, x, m).mul(lambda);
+               step.mul(psi0).add(FloatVector.fromArray(FLOAT_SPECIES, w, row0 + m)).intoArray(w, row0 + m);
+               step.mul(psi1).add(FloatVector.fromArray(FLOAT_SPECIES, w, row1 + m)).intoArray(w, row1 + m);
+            }
+
+            for (; m < mEnd; m++)
+            {
+               w[row0 + m] += lambda * x[m] * psi0;
+               w[row1 + m] += lambda * x[m] * psi1;
+            }
+         } // for (k = 0; k + 1 < rows; k += 2)
+
+         for (; k < rows; k++)
+         {
+            for (m = mStart; m < mEnd; m++)
+            {
+               w[k * width + m] += lambda * x[m] * psi[k];
+            }
+         }
+      } // for (int mStart = 0; mStart < width; mStart += UPDATE_TILE)
+   } // public void updateLayer(float lambda, float[] x, float[] psi, float[] w, int rows, int width)
+
+   /*
+    * Returns the dot product of the int8 values x[0..length) and w[wOffset..wOffset + length). Each step
+    * widens INT_LANES bytes of both arrays to ints, so the sum is exact and equals ScalarKernel's.
+    */
+   public int dot(byte[] x, byte[] w, int wOffset, int length)
+   {
+      IntVector sum = IntVector.zero(INT_SPECIES);
+      int i = 0;
+
+      for (; i <= length - BYTE_SPECIES.length(); i += INT_LANES)
+      {
+         IntVector xi = (IntVector) ByteVector.fromArray(BYTE_SPECIES, x, i).convertShape(VectorOperators.B2I, INT_SPECIES, 0);
+         IntVector wi = (IntVector) ByteVector.fromArray(BYTE_SPECIES, w, wOffset + i).convertShape(VectorOperators.B2I, INT_SPECIES, 0);
+         sum = xi.mul(wi).add(sum);
+      }
+
+      int total = sum.reduceLanes(VectorOperators.ADD);
+
+      for (; i < length; i++)
+      {
+         total += x[i] * w[wOffset + i];
+      }
+
+      return total;
+   } // public int dot(byte[] x, byte[] w, int wOffset, int length)
+
+   /*
+    * Returns the dot product of the floats x[0..length) and w[wOffset..wOffset + length), widening LANES
+    * floats of each array to doubles per step. The products are exact, so the fused multiply-add rounds
+    * like a separate add, but the two accumulators still sum in a different order from ScalarKernel.
+    */
+   public double mixedDot(float[] x, float[] w, int wOffset, int length)
+   {
+      DoubleVector sum0 = DoubleVector.zero(SPECIES);
+      DoubleVector sum1 = DoubleVector.zero(SPECIES);
+      int i = 0;
+
+      for (; i <= length - 2 * LANES; i += 2 * LANES)
+      {
+         sum0 = widen(x, i).fma(widen(w, wOffset + i), sum0);
+         sum1 = widen(x, i + LANES).fma(widen(w, wOffset + i + LANES), sum1);
+      }
+
+      for (; i <= length - LANES; i += LANES)
+      {
+         sum0 = widen(x, i).fma(widen(w, wOffset + i), sum0);
+      }
+
+      double sum = sum0.add(sum1).reduceLanes(VectorOperators.ADD);
+
+      for (; i < length; i++)
+      {
+         sum += (double) x[i] * w[wOffset + i];
+      }
+
+      return sum;
+   } // public double mixedDot(float[] x, float[] w, int wOffset, int length)
+
+   /*
+    * Adds a * w[wOffset + i] to the double y[i] for every i in [0, length)
+    */
+   public void mixedAccumulate(float a, float[] w, int wOffset, double[] y, int length)
+   {
+      int i = 0;
+
+      for (; i <= length - LANES; i += LANES)
+      {
+         widen(w, wOffset + i).mul(a)
+               .add(DoubleVector.fromArray(SPECIES, y, i))
+               .intoArray(y, i);
+      }
+
+      for (; i < length; i++)
+      {
+         y[i] += (double) a * w[wOffset + i];
+      }
+   } // public void mixedAccumulate(float a, float[] w, int wOffset, double[] y, int length)
+
+   /*
+    * Adds lambda * x[i] * psi to w[wOffset + i] in double, rounding each new weight to float once
+    */
+   public void mixedUpdateRow(double lambda, float[] x, float psi, float[] w, int wOffset, int length)
+   {
+      double step = lambda * psi;
+      int i = 0;
+
+      for (; i <= length - LANES; i += LANES)
+      {
+         narrow(widen(x, i).mul(step).add(widen(w, wOffset + i))).intoArray(w, wOffset + i);
+      }
+
+      for (; i < length; i++)
+      {
+         w[wOffset + i] = (float) (w[wOffset + i] + step * x[i]);
+      }
+   } // public void mixedUpdateRow(double lambda, float[] x, float psi, float[] w, int wOffset, int length)
+
+   /*
+    * Adds lambda * x[i] * psi to master[wOffset + i] and copies the result, rounded, into w[wOffset + i]
+    */
+   public void masterUpdateRow(double lambda, float[] x, float psi, double[] master, float[] w, int wOffset, int length)
+   {
+      double step = lambda * psi;
+      int i = 0;
+
+      for (; i <= length - LANES; i += LANES)
+      {
+         DoubleVector updated = widen(x, i).mul(step).add(DoubleVector.fromArray(SPECIES, master, wOffset + i));
+         updated.intoArray(master, wOffset + i);
+         narrow(updated).intoArray(w, wOffset + i);
+      }
+
+      for (; i < length; i++)
+      {
+         master[wOffset + i] += step * x[i];
+         w[wOffset + i] = (float) master[wOffset + i];
+      }
+   } // public void masterUpdateRow(double lambda, float[] x, float psi, double[] master, float[] w, int wOffset, int length)
+
+   /*
+    * Loads LANES floats starting at a[offset] and widens them to a double vector
+    */
+   private static DoubleVector widen(float[] a, int offset)
+   {
+      return (DoubleVector) FloatVector.fromArray(HALF_FLOAT_SPECIES, a, offset).convertShape(VectorOperators.F2D, SPECIES, 0);
+   }
+
+   /*
+    * Rounds a double vector to a float vector of the same number of lanes
+    */
+   private static FloatVector narrow(DoubleVector v)
+   {
+      return (FloatVector) v.convertShape(VectorOperators.D2F, HALF_FLOAT_SPECIES, 0);
+   }
+
+   /*
+    * Returns the name of the kernel as used in the configuration file
+    */
+   public String name()
+   {
+      return "vector";
+   }
+
+} // public class VectorKernel implements Kernel
@@ -0,0 +1,62 @@
+/*
+ * The scratch arrays one thread writes while it runs or trains the double precision network on one case
+ * or one block of cases. Perceptron keeps one workspace for its own thread, and every worker of a
+ * parallel mode gets its own, so no two threads ever write to the same array.
+ *
+ * public Workspace(int noLayers, int[] noActivations, int batchSize)
+ * public void allocateTrainingArrays(int noLayers, int[] noActivations)
+ */
+public class Workspace
+{
+   public double[][] activations;
+   public double[][] thetas; // the dot products of each layer, null until allocateTrainingArrays
+   public double[][] psi; // the psi values of each layer, null until allocateTrainingArrays
+   public double[][] batchActivations; // one [b][k] buffer per layer for a block of cases, null without batching
+
+   /*
+    * Allocates the arrays needed to run the network
+    *
+    * @param noLayers         the number of connectivity layers
+    * @param noActivations    the number of activations in each layer
+    * @param batchSize        the number of cases run together, 1 to run them one at a time
+    */
+   public Workspace(int noLayers, int[] noActivations, int batchSize)
+   {
+      activations = new double[noLayers + 1][];
+      for (int n = 0; n <= noLayers; n++)
+      {
+         activations[n] = new double[noActivations[n]];
+      }
+
+      if (batchSize > 1)
+      {
+         batchActivations = new double[noLayers + 1][];
+         for (int n = 0; n <= noLayers; n++)
+         {
+            batchActivations[n] = new double[batchSize * noActivations[n]];
+         }
+      }
+   } // public Workspace(int noLayers, int[] noActivations, int batchSize)
+
+   /*
+    * Allocates the additional arrays needed to train the network
+    *
+    * @param noLayers         the number of connectivity layers
+    * @param noActivations    the number of activations in each layer
+    */
+   public void allocateTrainingArrays(int noLayers, int[] noActivations)
+   {
+      thetas = new double[noLayers + 1][];
+      for (int n = 0; n <= noLayers; n++)
+      {
+         thetas[n] = new double[noActivations[n]];
+      }
+
+      psi = new double[noLayers + 1][];
+      for (int n = 0; n <= noLayers; n++)
+      {
+         psi[n] = new double[noActivations[n]];
+      }
+   } // public void allocateTrainingArrays(int noLayers, int[] noActivations)
+
+} // public class Workspace